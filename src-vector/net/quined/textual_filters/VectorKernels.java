@@ -0,0 +1,89 @@
+package net.quined.textual_filters;
+
+/**
+ * Row kernels using the incubating Vector API, converting a full SIMD
+ * register of pixels per step.
+ *
+ * Kept apart from src because it needs --add-modules jdk.incubator.vector to
+ * compile and run. RasterKernels loads it by name and falls back to
+ * ScalarKernels when it can't be loaded or its results differ.
+ *
+ * Integer division has no SIMD instruction, so gradient colors are divided
+ * by multiplying with a rounded up 16-bit reciprocal instead. For channel
+ * values x below 256 and gradients d up to 256, (x * ceil(65536 / d)) >> 16
+ * equals x / d exactly: rounding up adds less than 1 / 65536 to the
+ * reciprocal, so less than 255 / 65536 < 1 / d to the quotient, while the
+ * fraction of x / d is at most (d - 1) / d and can't carry over.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+final class VectorKernels implements RasterKernels {
+  private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+  @Override
+  public void colorsToRanks(int[] row, int count, Coding coding) {
+    int bound = SPECIES.loopBound(count);
+    int x = 0;
+    if (coding.gradient) {
+      int reciprocal = (65536 + coding.colorGradient - 1) / coding.colorGradient;
+      for (; x < bound; x += SPECIES.length()) {
+        IntVector argb = IntVector.fromArray(SPECIES, row, x);
+        VectorMask<Integer> empty = argb.eq(coding.emptyColor);
+        IntVector index = argb.and(0xFF).mul(reciprocal).lanewise(VectorOperators.LSHR, 16);
+        index.and(coding.indexMask).min(coding.lastRank)
+             .blend(coding.noWord, empty).intoArray(row, x);
+      }
+    } else {
+      for (; x < bound; x += SPECIES.length()) {
+        IntVector argb = IntVector.fromArray(SPECIES, row, x);
+        VectorMask<Integer> empty = argb.eq(coding.emptyColor);
+        IntVector code = argb.lanewise(VectorOperators.XOR, Codebook.ALPHA_FLIP);
+        // codes of wide vocabularies skip the default color
+        VectorMask<Integer> wide = code.lanewise(VectorOperators.LSHR, 24)
+                                       .compare(VectorOperators.NE, 0);
+        code = code.lanewise(VectorOperators.SUB, 1, wide);
+        code.and(coding.indexMask).min(coding.lastRank)
+            .blend(coding.noWord, empty).intoArray(row, x);
+      }
+    }
+    ScalarKernels.colorsToRanks(row, x, count, coding);
+  }
+
+  @Override
+  public void ranksToColors(int[] row, int count, Coding coding) {
+    int bound = SPECIES.loopBound(count);
+    int x = 0;
+    for (; x < bound; x += SPECIES.length()) {
+      IntVector rank = IntVector.fromArray(SPECIES, row, x);
+      VectorMask<Integer> empty = rank.eq(coding.noWord);
+      IntVector color;
+      if (coding.gradient) {
+        color = rank.mul(coding.colorGradient).or(Codebook.ALPHA_FLIP);
+      } else {
+        VectorMask<Integer> wide = rank.compare(VectorOperators.GE, Codebook.MAX_RGB_CODE);
+        color = rank.lanewise(VectorOperators.ADD, 1, wide)
+                    .lanewise(VectorOperators.XOR, Codebook.ALPHA_FLIP);
+      }
+      color.blend(coding.emptyColor, empty).intoArray(row, x);
+    }
+    ScalarKernels.ranksToColors(row, x, count, coding);
+  }
+
+  @Override
+  public void clampRanks(int[] row, int count, int empty, Coding coding) {
+    int bound = SPECIES.loopBound(count);
+    int x = 0;
+    for (; x < bound; x += SPECIES.length()) {
+      IntVector level = IntVector.fromArray(SPECIES, row, x);
+      level.min(coding.lastRank).blend(coding.noWord, level.eq(empty)).intoArray(row, x);
+    }
+    ScalarKernels.clampRanks(row, x, count, empty, coding);
+  }
+}
@@ -0,0 +1,496 @@
+package net.quined.textual_filters;
+
+/**
+ * The mapping between words and colors used to turn a text into an image and
+ * back.
+ *
+ * Words are ranked by frequency, and the rank is what a pixel's color
+ * encodes. A codebook can be saved as a compact sidecar file next to the
+ * image. Opening that file memory-maps it and only reads its header; words
+ * are decoded from the mapping the first time a pixel refers to them. Images
+ * can then be decoded without the original text.
+ *
+ * Codebooks are immutable and can be shared between threads.
+ *
+ * File layout, all numbers big-endian:
+ *   int magic, int version, int encoding, int colorGradient, int indexMask,
+ *   int layout flags, float pad ratio, int word count n,
+ *   int[n+1] offsets of each word into the UTF-8 blob,
+ *   int[n] word frequencies, UTF-8 blob of the words in rank order.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public final class Codebook {
+  // "TFCB"
+  private static final int MAGIC = 0x54464342;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+  // files are written under this suffix and renamed when complete
+  private static final String PARTIAL_SUFFIX = ".partial";
+
+  // pure white is the default color, so the 24-bit code 0xFFFFFF is never a rank
+  static final int MAX_RGB_CODE = 0xFFFFFF;
+  // flipping the alpha byte keeps codes below 2^24 fully opaque
+  static final int ALPHA_FLIP = 0xFF000000;
+
+  private final TextAsImage.Encoding encoding;
+  // if we have less than 256 words, we need to map color ranges to unique words
+  private final int colorGradient;
+  // mask to eliminate parts of colors that don't have word mappings
+  private final int indexMask;
+  private final int size;
+  // layout stored with the codebook, or the default for new codebooks
+  private final Layout savedLayout;
+
+  // words by rank; filled lazily from the file for opened codebooks
+  private final String[] rankedWords;
+  // frequencies by rank, or null if they are read from the file
+  private final int[] frequencies;
+  // contents of an opened codebook file, or null
+  private final ByteBuffer file;
+  private final int frequencyStart;
+  private final int blobStart;
+  // built on first use, decoders never need it
+  private volatile HashMap<String, Integer> wordToRank;
+
+  /**
+   * Rank the words of a corpus by frequency and choose their colors.
+   *
+   * @param corpus      text whose vocabulary is mapped
+   * @since 0.1
+   */
+  public Codebook(Corpus corpus) {
+    // number of unique words in the corpus
+    size = corpus.uniqueWordCount();
+
+    // compute the index mask, so that we don't try to interpret colors as
+    // indices if they lie out of the word range
+    indexMask = maskFor(size);
+
+    colorGradient = colorGradientFor(size);
+    encoding = encodingFor(size);
+
+    List<Map.Entry<String, Integer>> histoKVList =
+      new ArrayList<Map.Entry<String, Integer>>(corpus.wordFrequency().entrySet());
+    Collections.sort(histoKVList, new WordFreqEntryComparator());
+
+    rankedWords = new String[size];
+    frequencies = new int[size];
+    HashMap<String, Integer> ranks = new HashMap<String, Integer>(2 * size);
+    for (int i = 0; i < size; i++) {
+      rankedWords[i] = histoKVList.get(i).getKey();
+      frequencies[i] = histoKVList.get(i).getValue();
+      ranks.put(rankedWords[i], i);
+    }
+    wordToRank = ranks;
+    savedLayout = Layout.DEFAULT;
+    file = null;
+    frequencyStart = 0;
+    blobStart = 0;
+  }
+
+  /**
+   * Copy of a mapping with the frequencies of an updated text.
+   */
+  private Codebook(Codebook ranked, Map<String, Integer> frequency) {
+    encoding = ranked.encoding;
+    colorGradient = ranked.colorGradient;
+    indexMask = ranked.indexMask;
+    size = ranked.size;
+    savedLayout = ranked.savedLayout;
+    rankedWords = new String[size];
+    frequencies = new int[size];
+    for (int i = 0; i < size; i++) {
+      rankedWords[i] = ranked.word(i);
+      frequencies[i] = frequency.get(rankedWords[i]);
+    }
+    // ranks are unchanged, so the lookup table can be shared
+    wordToRank = ranked.ranks();
+    file = null;
+    frequencyStart = 0;
+    blobStart = 0;
+  }
+
+  /**
+   * Read the header of a mapped codebook file.
+   */
+  private Codebook(ByteBuffer file) throws IOException {
+    if (file.limit() < HEADER_SIZE || file.getInt(0) != MAGIC) {
+      throw new IOException("not a codebook file");
+    }
+    if (file.getInt(4) != VERSION) {
+      throw new IOException("unsupported codebook version " + file.getInt(4));
+    }
+    int ordinal = file.getInt(8);
+    size = file.getInt(28);
+    colorGradient = file.getInt(12);
+    // a foreign or corrupt header must not index past the encodings or the file
+    if (ordinal < 0 || ordinal >= TextAsImage.Encoding.values().length
+        || size < 0 || colorGradient < 1 || colorGradient > 256) {
+      throw new IOException("not a codebook file");
+    }
+    if (HEADER_SIZE + 8L * size + 4 > file.limit()) {
+      throw new IOException("truncated codebook file");
+    }
+    this.file = file;
+    encoding = TextAsImage.Encoding.values()[ordinal];
+    indexMask = file.getInt(16);
+    savedLayout = Layout.fromFlags(file.getInt(20), file.getFloat(24));
+    frequencyStart = HEADER_SIZE + 4 * (size + 1);
+    blobStart = frequencyStart + 4 * size;
+    int blobLength = file.getInt(HEADER_SIZE + 4 * size);
+    if (blobLength < 0 || file.getInt(HEADER_SIZE) != 0) {
+      throw new IOException("not a codebook file");
+    }
+    if ((long) blobStart + blobLength > file.limit()) {
+      throw new IOException("truncated codebook file");
+    }
+    rankedWords = new String[size];
+    frequencies = null;
+  }
+
+  /**
+   * Open a codebook file written by save. The file is memory-mapped and
+   * words are only decoded once they are looked up.
+   *
+   * @param filename    codebook file
+   * @return            the stored codebook
+   * @throws IOException  if the file can't be read or isn't a codebook
+   * @since 0.1
+   */
+  public static Codebook open(String filename) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(filename, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      // the mapping stays valid after the channel is closed
+      return new Codebook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Write the codebook and the layout its images use to a file. The file is
+   * replaced in one step, so readers that mapped the old file keep a
+   * consistent copy and watchers never see a partial file.
+   *
+   * @param filename    codebook file to write
+   * @param layout      parameters the images were created with
+   * @throws IOException  if the file can't be written
+   * @since 0.1
+   */
+  public void save(String filename, Layout layout) throws IOException {
+    byte[][] encoded = new byte[size][];
+    int blobSize = 0;
+    for (int i = 0; i < size; i++) {
+      encoded[i] = word(i).getBytes(StandardCharsets.UTF_8);
+      blobSize += encoded[i].length;
+    }
+
+    File target = new File(filename);
+    File partial = new File(filename + PARTIAL_SUFFIX);
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(partial)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(encoding.ordinal());
+      out.writeInt(colorGradient);
+      out.writeInt(indexMask);
+      out.writeInt(layout.flags());
+      out.writeFloat(layout.getPadRatio());
+      out.writeInt(size);
+      int offset = 0;
+      for (int i = 0; i < size; i++) {
+        out.writeInt(offset);
+        offset += encoded[i].length;
+      }
+      out.writeInt(blobSize);
+      for (int i = 0; i < size; i++) {
+        out.writeInt(frequency(i));
+      }
+      for (int i = 0; i < size; i++) {
+        out.write(encoded[i]);
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(partial.toPath(), target.toPath(),
+               StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * How ranks are stored for a vocabulary of a given size. Shared with
+   * CorpusSketch, which sizes palettes from estimated counts.
+   *
+   * @param wordCount   number of unique words
+   * @return            the color encoding
+   */
+  static TextAsImage.Encoding encodingFor(long wordCount) {
+    if (wordCount > 255) {
+      return (wordCount > MAX_RGB_CODE) ? TextAsImage.Encoding.ARGB : TextAsImage.Encoding.RGB;
+    }
+    return TextAsImage.Encoding.GRADIENT;
+  }
+
+  /**
+   * Spacing of the colors of consecutive ranks.
+   *
+   * @param wordCount   number of unique words
+   * @return            color steps per rank
+   */
+  static int colorGradientFor(long wordCount) {
+    if (wordCount > 255) {
+      // When dealing with more than 255 unique words,
+      // each color value will be assigned a unique word.
+      // Hence, we don't need to map ranges of color values to a given word.
+      return 1;
+    }
+    return 256 / (int) Math.max(1, wordCount);
+  }
+
+  /**
+   * Smallest all-ones bit mask covering a word count.
+   */
+  static int maskFor(int wordCount) {
+    int mask = 0;
+    int shiftedWordCount = wordCount;
+    while (shiftedWordCount > 0) {
+      mask = (mask << 1) | 0x1;
+      shiftedWordCount = shiftedWordCount >> 1;
+    }
+    return mask;
+  }
+
+  /**
+   * Number of words in the codebook.
+   *
+   * @return      vocabulary size
+   * @since 0.1
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Look up the word with a given rank.
+   *
+   * @param rank    index of the word in the frequency sorted mapping
+   * @return        the word
+   * @since 0.1
+   */
+  public String word(int rank) {
+    String word = rankedWords[rank];
+    if (word == null) {
+      int start = file.getInt(HEADER_SIZE + 4 * rank);
+      int end = file.getInt(HEADER_SIZE + 4 * (rank + 1));
+      byte[] bytes = new byte[end - start];
+      file.get(blobStart + start, bytes);
+      word = new String(bytes, StandardCharsets.UTF_8);
+      if (word.equals(Corpus.NEWLINE)) {
+        word = Corpus.NEWLINE;
+      }
+      // Strings are immutable, so racing threads at worst decode a word twice
+      rankedWords[rank] = word;
+    }
+    return word;
+  }
+
+  /**
+   * Number of times the word with a given rank occurred in the text the
+   * codebook was built from.
+   *
+   * @param rank    index of the word in the frequency sorted mapping
+   * @return        occurence count
+   * @since 0.1
+   */
+  public int frequency(int rank) {
+    return (frequencies != null) ? frequencies[rank] : file.getInt(frequencyStart + 4 * rank);
+  }
+
+  /**
+   * Look up the rank of a word.
+   *
+   * @param word    word to look up
+   * @return        the word's rank, or -1 if it isn't in the codebook
+   * @since 0.1
+   */
+  public int rank(String word) {
+    Integer rank = ranks().get(word);
+    return (rank == null) ? -1 : rank;
+  }
+
+  private HashMap<String, Integer> ranks() {
+    HashMap<String, Integer> ranks = wordToRank;
+    if (ranks == null) {
+      synchronized (this) {
+        ranks = wordToRank;
+        if (ranks == null) {
+          ranks = new HashMap<String, Integer>(2 * size);
+          for (int i = 0; i < size; i++) {
+            ranks.put(word(i), i);
+          }
+          wordToRank = ranks;
+        }
+      }
+    }
+    return ranks;
+  }
+
+  /**
+   * How ranks are stored in pixel colors.
+   *
+   * @return      the color encoding chosen for the vocabulary
+   * @since 0.1
+   */
+  public TextAsImage.Encoding getEncoding() {
+    return encoding;
+  }
+
+  /**
+   * The layout saved with this codebook, or the default layout if it was
+   * built from a corpus.
+   *
+   * @return      image creation parameters
+   * @since 0.1
+   */
+  public Layout getSavedLayout() {
+    return savedLayout;
+  }
+
+  /**
+   * The parameters of this mapping for the row kernels.
+   *
+   * @param emptyColor    color of pixels without a word
+   * @param noWord        rank standing for pixels without a word
+   * @return              coding for RasterKernels
+   */
+  RasterKernels.Coding coding(int emptyColor, int noWord) {
+    return new RasterKernels.Coding(encoding == TextAsImage.Encoding.GRADIENT, colorGradient,
+                                    indexMask, size - 1, emptyColor, noWord);
+  }
+
+  /**
+   * Convert a word's rank into the color that represents it.
+   *
+   * @param rank    index of the word in the frequency sorted mapping
+   * @return        numeric ARGB representation of a color
+   * @since 0.1
+   */
+  public int rankToColor(int rank) {
+    if (encoding == TextAsImage.Encoding.GRADIENT) {
+      // words fit in one hue (blue), must use the cologradient to map color ranges
+      // to a specific word
+      return ALPHA_FLIP | (rank * colorGradient);
+    }
+    // skip over the code that would collide with the default color
+    int code = (rank < MAX_RGB_CODE) ? rank : rank + 1;
+    return code ^ ALPHA_FLIP;
+  }
+
+  /**
+   * Convert a color into the rank of a word. Colors that don't have an exact
+   * word mapping, e.g. after filtering, are masked and clamped into range.
+   *
+   * @param argb    numeric ARGB reperesentation of a color
+   * @return        index of a word in the frequency sorted mapping
+   * @since 0.1
+   */
+  public int colorToRank(int argb) {
+    int index;
+    if (encoding == TextAsImage.Encoding.GRADIENT) {
+      index = indexMask & ((argb & 0xFF) / colorGradient);
+    } else {
+      // opaque pixels of narrow images have their alpha flipped to 0, so this
+      // is plain 24-bit RGB in the common case
+      int code = argb ^ ALPHA_FLIP;
+      index = indexMask & ((code >>> 24) == 0 ? code : code - 1);
+    }
+    return Math.min(index, size - 1);
+  }
+
+  /**
+   * Check if this mapping still applies to an updated corpus. That is the
+   * case if the vocabulary is unchanged and the words whose frequency
+   * changed still sort between their neighbours.
+   *
+   * @param updated     corpus with the new text
+   * @param changed     words whose frequency differs between the two texts
+   * @return            true if every word keeps its rank in the updated corpus
+   * @since 0.1
+   */
+  public boolean ranksHold(Corpus updated, Set<String> changed) {
+    if (updated.uniqueWordCount() != size) {
+      return false;
+    }
+    Map<String, Integer> frequency = updated.wordFrequency();
+    WordFreqEntryComparator order = new WordFreqEntryComparator();
+    for (String word : changed) {
+      int rank = rank(word);
+      if (rank < 0 || !frequency.containsKey(word)) {
+        // a word was added to or removed from the vocabulary
+        return false;
+      }
+      Map.Entry<String, Integer> entry = rankEntry(rank, frequency);
+      if (rank > 0 && order.compare(rankEntry(rank - 1, frequency), entry) > 0) {
+        return false;
+      }
+      if (rank < size - 1 && order.compare(entry, rankEntry(rank + 1, frequency)) > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The same mapping with the word counts of an updated corpus, for texts
+   * where ranksHold is true. Stats and saved codebooks then show the
+   * current counts.
+   *
+   * @param updated     corpus with the new text
+   * @return            mapping with the same ranks and colors
+   * @since 0.1
+   */
+  public Codebook withFrequencies(Corpus updated) {
+    return new Codebook(this, updated.wordFrequency());
+  }
+
+  private Map.Entry<String, Integer> rankEntry(int rank, Map<String, Integer> frequency) {
+    String word = word(rank);
+    return new AbstractMap.SimpleEntry<String, Integer>(word, frequency.get(word));
+  }
+
+  // Compare Map.Entry's based on the size of the integer value
+  // used to sort words by their occurence frequencies.
+  // Ties are broken by the words themselves so that ranks don't depend on
+  // the histogram's iteration order.
+  static class WordFreqEntryComparator implements Comparator<Map.Entry<String, Integer>> {
+    @Override
+    public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+        int byFrequency = a.getValue().compareTo(b.getValue());
+        return (byFrequency != 0) ? byFrequency : a.getKey().compareTo(b.getKey());
+    }
+  }
+}
@@ -8,27 +8,59 @@ package net.quined.textual_filters;
  * @version 0.1
  */
 
-import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.InputStream;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.CharBuffer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Scanner;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
 
 public class Corpus {
-  // the corpus split by words
+  // the word standing in for a line break
+  static final String NEWLINE = "\n";
+  private static final int READ_BUFFER_SIZE = 8192;
+
+  // the corpus split by words; null once packed
   private String[] words;
+  // the words as codebook ranks, see packTokens
+  private PackedTokens packed;
+  private int length;
 
   private HashMap<String, Integer> wordHistogram = new HashMap<String, Integer>();
 
   // longest length of words between linebreaks
   private int longestLine;
   private int newlineCount;
+  // index of the first word of each line
+  private int[] lineStarts = new int[0];
+
+  /**
+   * Tokenization parameters
+   */
+  // applied to every word, in order
+  private ArrayList<WordNormalizer> normalizers = new ArrayList<WordNormalizer>();
+  // should leading and trailing punctuation become words of their own?
+  private boolean splitPunctuation = false;
+  // store words as packed ranks while loading, see setPackTokens
+  private boolean packWhileLoading = false;
+
+  /**
+   * Tokenizer state while a text is being imported
+   */
+  private Tokenizer tokenizer;
+  private WordDictionary dictionary;
+  // the words, or their dictionary ids when packing while loading
+  private ArrayList<String> currentWords;
+  private PackedTokens.Packer currentIds;
+  private int currentLength;
+  private int wordsOnLine;
+  private int[] currentLineStarts;
 
   /**
    *
@@ -44,15 +76,45 @@ public class Corpus {
   }
 
   /**
-   * Load a string and compute its word frequency histogram.
+   * Load a piece of text and compute its word frequency histogram. The text
+   * is tokenized in place; no copy of it is made.
    *
-   * @param text    String to set corpus text to
+   * @param text    text to set corpus text to
    * @since 0.1
    */
-  public void loadText(String text) {
-    InputStream is = new ByteArrayInputStream(text.getBytes());
-    BufferedReader br = new BufferedReader(new InputStreamReader(is));
-    processText(br);
+  public void loadText(CharSequence text) {
+    beginText();
+    tokenizer.scan(text, 0, text.length());
+    endText();
+  }
+
+  /**
+   * Load the contents of a Swing Document, such as the one backing a text
+   * area, and compute its word frequency histogram. The document is read
+   * through its Segment API in whatever chunks it stores, so its text is
+   * never copied into an intermediate String.
+   *
+   * @param doc     document holding the corpus text
+   * @since 0.1
+   */
+  public void loadDocument(Document doc) {
+    beginText();
+    Segment segment = new Segment();
+    segment.setPartialReturn(true);
+    int offset = 0;
+    int remaining = doc.getLength();
+    try {
+      while (remaining > 0) {
+        doc.getText(offset, remaining, segment);
+        tokenizer.scan(segment, 0, segment.count);
+        offset += segment.count;
+        remaining -= segment.count;
+      }
+    } catch (BadLocationException e) {
+      // the document was modified while reading; keep what was read so far
+      System.out.format("document changed while loading at offset %d%n", offset);
+    }
+    endText();
   }
 
   /**
@@ -64,57 +126,149 @@ public class Corpus {
   public void loadFile(String filename) {
     // projectName = filename.replaceFirst("[.][^.]+$", "");
 
+    BufferedReader bufReader = null;
     try {
-      processText(new BufferedReader(new FileReader(filename)));
+      bufReader = new BufferedReader(new FileReader(filename));
+      beginText();
+      char[] buf = new char[READ_BUFFER_SIZE];
+      CharBuffer chunk = CharBuffer.wrap(buf);
+      int read;
+      while ((read = bufReader.read(buf)) != -1) {
+        tokenizer.scan(chunk, 0, read);
+      }
+      endText();
     } catch (IOException e) {
       System.out.format("couldn't open %s%n", filename);
+    } finally {
+      if (bufReader != null) {
+        try {
+          bufReader.close();
+        } catch (IOException e) {
+          // nothing left to read
+        }
+      }
     }
   }
 
   /**
-   * Import a text from a BufferedReader file and build the word histogram for that text
+   * Add a normalizer that every word is passed through while a text is
+   * loaded, e.g. to ignore case. Normalizers run in the order they are added
+   * and must be set before loading.
    *
-   * @param bufReader     reader with text to import into the corpus
+   * @param normalizer    rewrites words in place
    * @since 0.1
    */
-  private void processText(BufferedReader bufReader) {
+  public void addNormalizer(WordNormalizer normalizer) {
+    normalizers.add(normalizer);
+  }
+
+  /**
+   * Setter for treating punctuation at the start and end of words as words
+   * of their own, so "world," becomes "world" and ",". Must be set before
+   * loading.
+   *
+   * @param b         split punctuation off words
+   * @since 0.1
+   */
+  public void setSplitPunctuation(boolean b) {
+    this.splitPunctuation = b;
+  }
+
+  /**
+   * Setter for storing the words of loaded texts as packed ranks, as
+   * packTokens does, with a codebook built from the text. The words are
+   * packed while the text is tokenized, so texts that don't fit in memory
+   * with a String reference per word can still be loaded. Must be set before
+   * loading.
+   *
+   * @param b         pack words while loading
+   * @since 0.1
+   */
+  public void setPackTokens(boolean b) {
+    this.packWhileLoading = b;
+  }
+
+  /**
+   * Reset the tokenizer state before importing a text.
+   */
+  private void beginText() {
     // TODO: make is so this can only be called once per object instantiation
-    ArrayList<String> currentWords = new ArrayList<String>();
-    Scanner lineScanner = null;
+    tokenizer = new Tokenizer(new CorpusSink(), normalizers, splitPunctuation);
+    dictionary = new WordDictionary();
+    if (packWhileLoading) {
+      currentIds = new PackedTokens.Packer();
+    } else {
+      currentWords = new ArrayList<String>();
+    }
+    currentLength = 0;
+    wordsOnLine = 0;
+    currentLineStarts = new int[16];
+    currentLineStarts[0] = 0;
+  }
 
-    try {
-      lineScanner = new Scanner(bufReader);
-
-      String word;
-      while (lineScanner.hasNextLine()) {
-        int wordsOnLine = 0;
-        Scanner wordScanner = new Scanner(lineScanner.nextLine());
-        while (wordScanner.hasNext()) {
-          word = wordScanner.next();
-          currentWords.add(word);
-          wordsOnLine++;
-
-          // update word histogram
-          addWordToHistogram(word);
-        }
-        this.newlineCount++;
-        if (lineScanner.hasNextLine()) {
-          // add a newline and count as a word
-          wordsOnLine++;
-          currentWords.add("\n");
-          addWordToHistogram("\n");
-        }
-        if (wordsOnLine > this.longestLine) {
-          longestLine = wordsOnLine;
-        }
+  /**
+   * Flush the last word and line and freeze the word list.
+   */
+  private void endText() {
+    tokenizer.finish();
+    length = currentLength;
+    lineStarts = Arrays.copyOf(currentLineStarts, newlineCount);
+    wordHistogram = dictionary.toHistogram();
+    if (packWhileLoading) {
+      String[] wordOfId = new String[dictionary.size()];
+      for (int id = 0; id < wordOfId.length; id++) {
+        wordOfId[id] = dictionary.word(id);
       }
-    } finally {
-      if (lineScanner != null) {
-        lineScanner.close();
+      packed = PackedTokens.ofIds(currentIds, wordOfId, new Codebook(this));
+      words = null;
+    } else {
+      // convert ArrayList of Strings into an immutable Array of Strings
+      words = currentWords.toArray(new String[0]);
+      packed = null;
+    }
+    tokenizer = null;
+    dictionary = null;
+    currentWords = null;
+    currentIds = null;
+    currentLineStarts = null;
+  }
+
+  // Collects the tokenizer's words and lines into this corpus
+  private class CorpusSink implements Tokenizer.Sink {
+    @Override
+    public void word(CharSequence chars, int start, int end) {
+      add(dictionary.add(chars, start, end));
+    }
+
+    @Override
+    public void lineBreak() {
+      // add a newline and count as a word
+      add(dictionary.add(NEWLINE, 0, 1));
+    }
+
+    private void add(int id) {
+      if (currentIds != null) {
+        currentIds.add(id);
+      } else {
+        // all occurrences of a word share the dictionary's String
+        currentWords.add(dictionary.word(id));
       }
+      currentLength++;
+      wordsOnLine++;
+    }
+
+    @Override
+    public void endLine() {
+      newlineCount++;
+      if (wordsOnLine > longestLine) {
+        longestLine = wordsOnLine;
+      }
+      wordsOnLine = 0;
+      if (newlineCount == currentLineStarts.length) {
+        currentLineStarts = Arrays.copyOf(currentLineStarts, 2 * newlineCount);
+      }
+      currentLineStarts[newlineCount] = currentLength;
     }
-    // convert ArrayList of Strings into an immutable Array of Strings
-    words = currentWords.toArray(new String[0]);
   }
 
   /**
@@ -124,7 +278,7 @@ public class Corpus {
    * @since 0.1
    */
   public int length() {
-    return words.length;
+    return length;
   }
 
   /**
@@ -148,30 +302,64 @@ public class Corpus {
   }
 
   /**
-   * Provide access to a copy of the histogram of words in corpus.
-   * This is a map from words to the number of their occurences
+   * Index of the first word on a line.
    *
-   * @return    map from words to the times they occur
+   * @param line    line number, counting from 0
+   * @return        index of the line's first word, or of its newline if the line is empty
    * @since 0.1
    */
-  public HashMap<String, Integer> wordFrequency() {
-    return wordHistogram;
+  public int lineStart(int line) {
+    return lineStarts[line];
   }
 
   /**
-   * Add a word or increment word occurence in histogram
+   * Number of words on a line, not counting the newline that ends it.
    *
-   * @param word that occurs in corpus
+   * @param line    line number, counting from 0
+   * @return        word count of the line
    * @since 0.1
    */
-  private void addWordToHistogram(String word) {
-    if (wordHistogram.containsKey(word)) {
-      wordHistogram.put(word, wordHistogram.get(word) + 1);
-    } else {
-      wordHistogram.put(word, 1);
+  public int lineLength(int line) {
+    if (line + 1 < newlineCount) {
+      return lineStarts[line + 1] - lineStarts[line] - 1;
     }
+    return length - lineStarts[line];
   }
 
+  /**
+   * Check if a line holds the same words as a line of another corpus.
+   *
+   * @param line        line number in this corpus
+   * @param other       corpus to compare with
+   * @param otherLine   line number in the other corpus
+   * @return            true if both lines consist of the same words
+   * @since 0.1
+   */
+  public boolean lineEquals(int line, Corpus other, int otherLine) {
+    int length = lineLength(line);
+    if (length != other.lineLength(otherLine)) {
+      return false;
+    }
+    int start = lineStarts[line];
+    int otherStart = other.lineStarts[otherLine];
+    for (int i = 0; i < length; i++) {
+      if (!getWord(start + i).equals(other.getWord(otherStart + i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Provide access to a copy of the histogram of words in corpus.
+   * This is a map from words to the number of their occurences
+   *
+   * @return    map from words to the times they occur
+   * @since 0.1
+   */
+  public HashMap<String, Integer> wordFrequency() {
+    return wordHistogram;
+  }
 
   /**
    * Generate the String representation of the original corpus
@@ -182,13 +370,16 @@ public class Corpus {
   public String getOriginalText() {
     StringBuffer result = new StringBuffer();
 
-    result.append(words[0]);
-    for (int i = 1; i < words.length; i++) {
-      if (words[i-1] == "\n" || words[i] == "\n") {
-        result.append(words[i]);
+    String previous = getWord(0);
+    result.append(previous);
+    for (int i = 1; i < length; i++) {
+      String word = getWord(i);
+      if (previous == "\n" || word == "\n") {
+        result.append(word);
       } else {
-        result.append(" " + words[i]);
+        result.append(" " + word);
       }
+      previous = word;
     }
     return result.toString();
   }
@@ -213,6 +404,35 @@ public class Corpus {
    * @since 0.1
    */
   public String getWord(int index) {
-    return words[index];
+    return (words != null) ? words[index] : packed.getCodebook().word(packed.rank(index));
+  }
+
+  /**
+   * Store the words as bit-packed codebook ranks instead of one String
+   * reference each, which takes a fraction of the memory. Words are then
+   * looked up through the codebook, and encoders using the same codebook
+   * read the ranks directly. Not safe while other threads read the corpus.
+   *
+   * @param codebook    mapping holding every word of the text
+   * @return            the packed words
+   * @throws IllegalArgumentException  if a word is missing from the codebook
+   * @since 0.1
+   */
+  public PackedTokens packTokens(Codebook codebook) {
+    if (packed == null || packed.getCodebook() != codebook) {
+      packed = new PackedTokens(this, codebook);
+      words = null;
+    }
+    return packed;
+  }
+
+  /**
+   * The words as codebook ranks.
+   *
+   * @return      the packed words, or null if packTokens wasn't called
+   * @since 0.1
+   */
+  public PackedTokens getPackedTokens() {
+    return packed;
   }
 }
@@ -0,0 +1,452 @@
+package net.quined.textual_filters;
+
+/**
+ * Measures how much a filter changed a text by comparing the Corpus of the
+ * original text with the Corpus decoded from the filtered image.
+ *
+ * Both texts are turned into streams of word ids, newlines included, and
+ * compared with two algorithms:
+ *
+ *   - the word level Levenshtein distance, computed with Myers' bit-parallel
+ *     algorithm in Hyyro's multi-block form: 64 words of the shorter text
+ *     per long, so comparing n by m words takes about n * m / 64 steps;
+ *   - an alignment of the texts as runs of kept, deleted and inserted words,
+ *     found by recursively splitting both texts at the middle snake of
+ *     Myers' O(ND) diff, which needs memory linear in the text lengths.
+ *
+ * The alignment also gives the share of each original line that changed.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+public class CorpusDiff {
+  // a 64-bit block of the pattern in the Levenshtein computation
+  private static final int BLOCK_BITS = 64;
+
+  /**
+   * What happened to a run of words
+   */
+  public enum Operation {
+    // in both texts
+    EQUAL,
+    // only in the original
+    DELETE,
+    // only in the filtered text
+    INSERT
+  }
+
+  /**
+   * A run of words that the filter kept, deleted or inserted.
+   */
+  public static final class Edit {
+    private final Operation operation;
+    private final int originalStart;
+    private final int filteredStart;
+    private final int length;
+
+    Edit(Operation operation, int originalStart, int filteredStart, int length) {
+      this.operation = operation;
+      this.originalStart = originalStart;
+      this.filteredStart = filteredStart;
+      this.length = length;
+    }
+
+    public Operation getOperation() {
+      return operation;
+    }
+
+    /**
+     * Index of the run's first word in the original, or where an insertion
+     * happened.
+     */
+    public int getOriginalStart() {
+      return originalStart;
+    }
+
+    /**
+     * Index of the run's first word in the filtered text, or where a
+     * deletion happened.
+     */
+    public int getFilteredStart() {
+      return filteredStart;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    @Override
+    public String toString() {
+      return operation + "(" + originalStart + ", " + filteredStart + ", " + length + ")";
+    }
+  }
+
+  private final Corpus original;
+  // word ids of both texts; equal words have equal ids
+  private final int[] originalIds;
+  private final int[] filteredIds;
+
+  // computed on first use
+  private int distance = -1;
+  private List<Edit> edits;
+
+  /**
+   * @param original    text before filtering
+   * @param filtered    text decoded from the filtered image
+   */
+  public CorpusDiff(Corpus original, Corpus filtered) {
+    this.original = original;
+    HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    originalIds = toIds(original, ids);
+    filteredIds = toIds(filtered, ids);
+  }
+
+  private static int[] toIds(Corpus c, HashMap<String, Integer> ids) {
+    int[] result = new int[c.length()];
+    for (int i = 0; i < result.length; i++) {
+      Integer id = ids.get(c.getWord(i));
+      if (id == null) {
+        id = ids.size();
+        ids.put(c.getWord(i), id);
+      }
+      result[i] = id;
+    }
+    return result;
+  }
+
+  /**
+   * Least number of word insertions, deletions and substitutions that turn
+   * the original into the filtered text.
+   *
+   * @return      word level Levenshtein distance
+   * @since 0.1
+   */
+  public int editDistance() {
+    if (distance < 0) {
+      distance = levenshtein(originalIds, filteredIds);
+    }
+    return distance;
+  }
+
+  /**
+   * Similarity of the texts, from 0 for nothing in common to 1 for equal
+   * texts: one minus the edit distance over the longer text's length.
+   *
+   * @return      similarity between 0 and 1
+   * @since 0.1
+   */
+  public double similarity() {
+    int longer = Math.max(originalIds.length, filteredIds.length);
+    return (longer == 0) ? 1.0 : 1.0 - (double) editDistance() / longer;
+  }
+
+  /**
+   * Alignment of the texts as runs of kept, deleted and inserted words, in
+   * text order. Deleting the DELETE runs from the original and adding the
+   * INSERT runs gives the filtered text; substitutions show up as a
+   * deletion next to an insertion.
+   *
+   * @return      the runs, with no two neighbours of the same operation
+   * @since 0.1
+   */
+  public List<Edit> edits() {
+    if (edits == null) {
+      edits = Collections.unmodifiableList(diff(originalIds, filteredIds));
+    }
+    return edits;
+  }
+
+  /**
+   * Share of each original line that the filter changed: the words deleted
+   * from a line or inserted into it, over the words it holds afterwards plus
+   * the words deleted from it. A line's newline counts as one of its words.
+   *
+   * @return      ratio between 0 and 1 for each line of the original
+   * @since 0.1
+   */
+  public double[] lineChangeRatios() {
+    int lines = original.newlineCount();
+    int[] lineOf = new int[originalIds.length + 1];
+    for (int line = 0; line < lines; line++) {
+      int end = (line + 1 < lines) ? original.lineStart(line + 1) : originalIds.length;
+      Arrays.fill(lineOf, original.lineStart(line), end, line);
+    }
+    // insertions after the last word belong to the last line
+    lineOf[originalIds.length] = Math.max(0, lines - 1);
+
+    int[] changed = new int[lines];
+    int[] inserted = new int[lines];
+    for (Edit edit : edits()) {
+      if (edit.operation == Operation.DELETE) {
+        for (int i = edit.originalStart; i < edit.originalStart + edit.length; i++) {
+          changed[lineOf[i]]++;
+        }
+      } else if (edit.operation == Operation.INSERT && lines > 0) {
+        changed[lineOf[edit.originalStart]] += edit.length;
+        inserted[lineOf[edit.originalStart]] += edit.length;
+      }
+    }
+    double[] ratios = new double[lines];
+    for (int line = 0; line < lines; line++) {
+      int end = (line + 1 < lines) ? original.lineStart(line + 1) : originalIds.length;
+      int size = end - original.lineStart(line) + inserted[line];
+      ratios[line] = (size == 0) ? 0.0 : (double) changed[line] / size;
+    }
+    return ratios;
+  }
+
+  /**
+   * Levenshtein distance between two sequences of ids. The shorter sequence
+   * is cut into 64-id blocks whose vertical score deltas are kept as bit
+   * vectors; each id of the longer sequence advances every block with a few
+   * word operations, passing the horizontal delta of its top row on to the
+   * next block.
+   *
+   * @param a     ids of one text
+   * @param b     ids of the other
+   * @return      least number of insertions, deletions and substitutions
+   */
+  static int levenshtein(int[] a, int[] b) {
+    int[] pattern = (a.length <= b.length) ? a : b;
+    int[] text = (a.length <= b.length) ? b : a;
+    int m = pattern.length;
+    if (m == 0) {
+      return text.length;
+    }
+
+    // number the pattern's distinct ids densely; other ids match nothing
+    HashMap<Integer, Integer> symbols = new HashMap<Integer, Integer>();
+    int[] patternSymbols = new int[m];
+    for (int i = 0; i < m; i++) {
+      Integer symbol = symbols.get(pattern[i]);
+      if (symbol == null) {
+        symbol = symbols.size();
+        symbols.put(pattern[i], symbol);
+      }
+      patternSymbols[i] = symbol;
+    }
+    int blocks = (m + BLOCK_BITS - 1) / BLOCK_BITS;
+    // peq[symbol * blocks + block] has a bit set where the block holds the symbol
+    long[] peq = new long[symbols.size() * blocks];
+    for (int i = 0; i < m; i++) {
+      peq[patternSymbols[i] * blocks + i / BLOCK_BITS] |= 1L << (i % BLOCK_BITS);
+    }
+
+    long[] pv = new long[blocks];
+    long[] mv = new long[blocks];
+    Arrays.fill(pv, -1L);
+    // the score is read at the pattern's last row, which may not be the last block's top bit
+    long lastHighBit = 1L << ((m - 1) % BLOCK_BITS);
+    int score = m;
+    for (int j = 0; j < text.length; j++) {
+      Integer symbol = symbols.get(text[j]);
+      int peqBase = (symbol == null) ? -1 : symbol * blocks;
+      // the first row of the distance matrix grows by one per column
+      int carry = 1;
+      for (int block = 0; block < blocks; block++) {
+        long eq = (peqBase < 0) ? 0L : peq[peqBase + block];
+        long highBit = (block == blocks - 1) ? lastHighBit : Long.MIN_VALUE;
+
+        long p = pv[block];
+        long n = mv[block];
+        long xv = eq | n;
+        if (carry < 0) {
+          eq |= 1L;
+        }
+        long xh = (((eq & p) + p) ^ p) | eq;
+        long ph = n | ~(xh | p);
+        long mh = p & xh;
+
+        int hout = 0;
+        if ((ph & highBit) != 0) {
+          hout = 1;
+        } else if ((mh & highBit) != 0) {
+          hout = -1;
+        }
+
+        ph <<= 1;
+        mh <<= 1;
+        if (carry < 0) {
+          mh |= 1L;
+        } else if (carry > 0) {
+          ph |= 1L;
+        }
+        pv[block] = mh | ~(xv | ph);
+        mv[block] = ph & xv;
+        carry = hout;
+      }
+      score += carry;
+    }
+    return score;
+  }
+
+  /**
+   * Align two sequences of ids as runs of kept, deleted and inserted ids.
+   *
+   * @param a     ids of the original
+   * @param b     ids of the filtered text
+   * @return      the runs in order, neighbouring runs of one operation merged
+   */
+  static List<Edit> diff(int[] a, int[] b) {
+    ArrayList<Edit> result = new ArrayList<Edit>();
+    diff(a, 0, a.length, b, 0, b.length, result);
+    return result;
+  }
+
+  private static void diff(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd,
+                           List<Edit> result) {
+    // strip the common prefix and suffix, which need no search
+    int prefix = 0;
+    while (aStart + prefix < aEnd && bStart + prefix < bEnd && a[aStart + prefix] == b[bStart + prefix]) {
+      prefix++;
+    }
+    add(result, Operation.EQUAL, aStart, bStart, prefix);
+    aStart += prefix;
+    bStart += prefix;
+    int suffix = 0;
+    while (aStart < aEnd - suffix && bStart < bEnd - suffix
+           && a[aEnd - 1 - suffix] == b[bEnd - 1 - suffix]) {
+      suffix++;
+    }
+    aEnd -= suffix;
+    bEnd -= suffix;
+
+    if (aStart == aEnd) {
+      add(result, Operation.INSERT, aStart, bStart, bEnd - bStart);
+    } else if (bStart == bEnd) {
+      add(result, Operation.DELETE, aStart, bStart, aEnd - aStart);
+    } else {
+      long split = bisect(a, aStart, aEnd, b, bStart, bEnd);
+      if (split < 0) {
+        add(result, Operation.DELETE, aStart, bStart, aEnd - aStart);
+        add(result, Operation.INSERT, aEnd, bStart, bEnd - bStart);
+      } else {
+        int x = (int) (split >>> 32);
+        int y = (int) split;
+        diff(a, aStart, aStart + x, b, bStart, bStart + y, result);
+        diff(a, aStart + x, aEnd, b, bStart + y, bEnd, result);
+      }
+    }
+    add(result, Operation.EQUAL, aEnd, bEnd, suffix);
+  }
+
+  /**
+   * Find the middle snake of the shortest edit script, searching forwards
+   * from the start and backwards from the end at once until the two
+   * searches overlap. Only the furthest reaching paths of the current
+   * edit count are kept.
+   *
+   * @return      offsets into both ranges packed as (x << 32) | y where the
+   *              ranges can be split, or -1 if they share nothing
+   */
+  private static long bisect(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd) {
+    int n = aEnd - aStart;
+    int m = bEnd - bStart;
+    int maxD = (n + m + 1) / 2;
+    int vOffset = maxD;
+    int vLength = 2 * maxD + 2;
+    // furthest x on each diagonal k, indexed by vOffset + k
+    int[] v1 = new int[vLength];
+    int[] v2 = new int[vLength];
+    Arrays.fill(v1, -1);
+    Arrays.fill(v2, -1);
+    v1[vOffset + 1] = 0;
+    v2[vOffset + 1] = 0;
+    int delta = n - m;
+    // with an odd delta the forward path is the one to collide with the reverse path
+    boolean front = (delta % 2 != 0);
+    // diagonals that ran off the edges are skipped
+    int k1Start = 0;
+    int k1End = 0;
+    int k2Start = 0;
+    int k2End = 0;
+    for (int d = 0; d < maxD; d++) {
+      for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+        int k1Offset = vOffset + k1;
+        int x1;
+        if (k1 == -d || (k1 != d && v1[k1Offset - 1] < v1[k1Offset + 1])) {
+          x1 = v1[k1Offset + 1];
+        } else {
+          x1 = v1[k1Offset - 1] + 1;
+        }
+        int y1 = x1 - k1;
+        while (x1 < n && y1 < m && a[aStart + x1] == b[bStart + y1]) {
+          x1++;
+          y1++;
+        }
+        v1[k1Offset] = x1;
+        if (x1 > n) {
+          k1End += 2;
+        } else if (y1 > m) {
+          k1Start += 2;
+        } else if (front) {
+          int k2Offset = vOffset + delta - k1;
+          if (k2Offset >= 0 && k2Offset < vLength && v2[k2Offset] != -1) {
+            // mirror the reverse path's x onto the forward coordinates
+            int x2 = n - v2[k2Offset];
+            if (x1 >= x2) {
+              return ((long) x1 << 32) | y1;
+            }
+          }
+        }
+      }
+
+      for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+        int k2Offset = vOffset + k2;
+        int x2;
+        if (k2 == -d || (k2 != d && v2[k2Offset - 1] < v2[k2Offset + 1])) {
+          x2 = v2[k2Offset + 1];
+        } else {
+          x2 = v2[k2Offset - 1] + 1;
+        }
+        int y2 = x2 - k2;
+        while (x2 < n && y2 < m && a[aEnd - 1 - x2] == b[bEnd - 1 - y2]) {
+          x2++;
+          y2++;
+        }
+        v2[k2Offset] = x2;
+        if (x2 > n) {
+          k2End += 2;
+        } else if (y2 > m) {
+          k2Start += 2;
+        } else if (!front) {
+          int k1Offset = vOffset + delta - k2;
+          if (k1Offset >= 0 && k1Offset < vLength && v1[k1Offset] != -1) {
+            int x1 = v1[k1Offset];
+            int y1 = vOffset + x1 - k1Offset;
+            if (x1 >= n - x2) {
+              return ((long) x1 << 32) | y1;
+            }
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Append a run, merging it into the previous run of the same operation.
+   */
+  private static void add(List<Edit> result, Operation operation, int originalStart,
+                          int filteredStart, int length) {
+    if (length == 0) {
+      return;
+    }
+    if (!result.isEmpty()) {
+      Edit last = result.get(result.size() - 1);
+      if (last.operation == operation) {
+        result.set(result.size() - 1,
+                   new Edit(operation, last.originalStart, last.filteredStart, last.length + length));
+        return;
+      }
+    }
+    result.add(new Edit(operation, originalStart, filteredStart, length));
+  }
+}
@@ -0,0 +1,583 @@
+package net.quined.textual_filters;
+
+/**
+ * Approximate statistics of a text, gathered in one pass with bounded memory.
+ *
+ * A Corpus keeps every word and an exact histogram, which doesn't fit in
+ * memory for very large inputs. A sketch keeps fixed-size summaries instead:
+ *
+ *   - a Count-Min Sketch with conservative update estimates the frequency of
+ *     any word, never underestimating it;
+ *   - a HyperLogLog estimates the number of unique words;
+ *   - Space-Saving counters track the most frequent words;
+ *   - word, line and longest line counts, and a distribution of line
+ *     lengths, are exact.
+ *
+ * Words and newlines are counted the same way a Corpus counts them, so the
+ * estimates size images and palettes as TextAsImage and Codebook would,
+ * before or instead of loading the text exactly.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class CorpusSketch implements Tokenizer.Sink {
+  private static final int READ_BUFFER_SIZE = 8192;
+
+  // FNV-1a over UTF-16 chars, finished with the murmur3 mixer
+  private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+  private static final long FNV_PRIME = 0x100000001B3L;
+
+  // line lengths above this share the last bucket of the distribution
+  private static final int MAX_TRACKED_LINE = 4096;
+
+  /**
+   * Count-Min Sketch: depth rows of width counters, width a power of two
+   */
+  private final long[] countMin;
+  private final int depth;
+  private final int widthMask;
+
+  /**
+   * HyperLogLog: 2^precision registers of the longest run of leading zeros
+   */
+  private final byte[] registers;
+  private final int precision;
+
+  /**
+   * Space-Saving: capacity counters kept in a min-heap on their counts, and
+   * an open addressing table from word hashes to counters
+   */
+  private final int capacity;
+  private final String[] heavyWords;
+  private final long[] heavyHashes;
+  private final long[] heavyCounts;
+  private final int[] heap;
+  private final int[] heapPosition;
+  private int heavyCount;
+  private final int[] table;
+  private final int tableMask;
+
+  /**
+   * Exact counts
+   */
+  private long wordCount;
+  private int lineCount;
+  private int wordsOnLine;
+  private int longestLine;
+  private int lastLineLength;
+  private final long[] lineLengths = new long[MAX_TRACKED_LINE + 1];
+
+  /**
+   * Tokenization parameters
+   */
+  private final ArrayList<WordNormalizer> normalizers = new ArrayList<WordNormalizer>();
+  private boolean splitPunctuation = false;
+
+  /**
+   * A sketch of about 1.3 MB: frequencies within 0.01% of the word count with
+   * 99% probability, unique counts within about 1%, and the top 256 words.
+   */
+  public CorpusSketch() {
+    this(0.0001, 0.01, 14, 256);
+  }
+
+  /**
+   * @param epsilon       frequency estimates exceed the true count by at most
+   *                      epsilon times the word count ...
+   * @param delta         ... except with this probability
+   * @param precision     log2 of the HyperLogLog registers, 4 to 18; the
+   *                      unique word estimate is within about 1.04 / sqrt(2^precision)
+   * @param topK          number of frequent words to track
+   */
+  public CorpusSketch(double epsilon, double delta, int precision, int topK) {
+    if (precision < 4 || precision > 18) {
+      throw new IllegalArgumentException("precision must be between 4 and 18");
+    }
+    int width = Integer.highestOneBit((int) Math.ceil(Math.E / epsilon) - 1) << 1;
+    depth = Math.max(1, (int) Math.ceil(Math.log(1 / delta)));
+    widthMask = width - 1;
+    countMin = new long[depth * width];
+
+    this.precision = precision;
+    registers = new byte[1 << precision];
+
+    capacity = topK;
+    heavyWords = new String[topK];
+    heavyHashes = new long[topK];
+    heavyCounts = new long[topK];
+    heap = new int[topK];
+    heapPosition = new int[topK];
+    int tableSize = Integer.highestOneBit(Math.max(2, 2 * topK) - 1) << 1;
+    table = new int[tableSize];
+    Arrays.fill(table, -1);
+    tableMask = tableSize - 1;
+  }
+
+  /**
+   * Add a normalizer that every word is passed through, as for Corpus.
+   *
+   * @param normalizer    rewrites words in place
+   * @since 0.1
+   */
+  public void addNormalizer(WordNormalizer normalizer) {
+    normalizers.add(normalizer);
+  }
+
+  /**
+   * Setter for splitting punctuation off words, as for Corpus.
+   *
+   * @param b         split punctuation off words
+   * @since 0.1
+   */
+  public void setSplitPunctuation(boolean b) {
+    this.splitPunctuation = b;
+  }
+
+  /**
+   * Add a piece of text to the statistics.
+   *
+   * @param text    text to count
+   * @since 0.1
+   */
+  public void loadText(CharSequence text) {
+    Tokenizer tokenizer = new Tokenizer(this, normalizers, splitPunctuation);
+    tokenizer.scan(text, 0, text.length());
+    tokenizer.finish();
+  }
+
+  /**
+   * Add everything a reader supplies to the statistics, a chunk at a time.
+   *
+   * @param reader    source of the text; not closed
+   * @throws IOException  if reading fails
+   * @since 0.1
+   */
+  public void load(Reader reader) throws IOException {
+    Tokenizer tokenizer = new Tokenizer(this, normalizers, splitPunctuation);
+    char[] buf = new char[READ_BUFFER_SIZE];
+    CharBuffer chunk = CharBuffer.wrap(buf);
+    int read;
+    while ((read = reader.read(buf)) != -1) {
+      tokenizer.scan(chunk, 0, read);
+    }
+    tokenizer.finish();
+  }
+
+  /**
+   * Add a text file to the statistics.
+   *
+   * @param filename    Name of file to read
+   * @throws IOException  if the file can't be read
+   * @since 0.1
+   */
+  public void loadFile(String filename) throws IOException {
+    BufferedReader bufReader = new BufferedReader(new FileReader(filename));
+    try {
+      load(bufReader);
+    } finally {
+      bufReader.close();
+    }
+  }
+
+  @Override
+  public void word(CharSequence chars, int start, int end) {
+    long hash = FNV_OFFSET;
+    for (int i = start; i < end; i++) {
+      hash = (hash ^ chars.charAt(i)) * FNV_PRIME;
+    }
+    count(mix(hash), chars, start, end);
+  }
+
+  @Override
+  public void lineBreak() {
+    // the newline is a word of its own, as in Corpus
+    word(Corpus.NEWLINE, 0, 1);
+  }
+
+  @Override
+  public void endLine() {
+    lineCount++;
+    lineLengths[Math.min(wordsOnLine, MAX_TRACKED_LINE)]++;
+    lastLineLength = wordsOnLine;
+    if (wordsOnLine > longestLine) {
+      longestLine = wordsOnLine;
+    }
+    wordsOnLine = 0;
+  }
+
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB9FE1A85EC53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private void count(long hash, CharSequence chars, int start, int end) {
+    wordCount++;
+    wordsOnLine++;
+
+    // conservative update: only raise the counters that are at the minimum
+    long estimate = countMinEstimate(hash) + 1;
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32) | 1;
+    for (int row = 0; row < depth; row++) {
+      int cell = row * (widthMask + 1) + ((h1 + row * h2) & widthMask);
+      if (countMin[cell] < estimate) {
+        countMin[cell] = estimate;
+      }
+    }
+
+    int register = (int) (hash >>> (64 - precision));
+    // the guard bit bounds the run when all remaining bits are zero
+    int run = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+    if (run > registers[register]) {
+      registers[register] = (byte) run;
+    }
+
+    spaceSaving(hash, chars, start, end);
+  }
+
+  private long countMinEstimate(long hash) {
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32) | 1;
+    long min = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      min = Math.min(min, countMin[row * (widthMask + 1) + ((h1 + row * h2) & widthMask)]);
+    }
+    return min;
+  }
+
+  /**
+   * Count a word in the Space-Saving counters. A word that isn't tracked
+   * replaces the one with the smallest count and inherits that count as
+   * its possible overestimate.
+   */
+  private void spaceSaving(long hash, CharSequence chars, int start, int end) {
+    if (capacity == 0) {
+      return;
+    }
+    int slot = find(hash, chars, start, end);
+    if (slot < 0) {
+      if (heavyCount < capacity) {
+        slot = heavyCount++;
+        heap[slot] = slot;
+        heapPosition[slot] = slot;
+        heavyCounts[slot] = 0;
+      } else {
+        // the evicted word's count becomes the new word's overestimate
+        slot = heap[0];
+        remove(slot);
+      }
+      heavyWords[slot] = chars.subSequence(start, end).toString();
+      heavyHashes[slot] = hash;
+      insert(slot);
+      heavyCounts[slot]++;
+      siftUp(heapPosition[slot]);
+    } else {
+      heavyCounts[slot]++;
+    }
+    siftDown(heapPosition[slot]);
+  }
+
+  /**
+   * Find the counter of a word in the table, or -1.
+   */
+  private int find(long hash, CharSequence chars, int start, int end) {
+    for (int i = (int) hash & tableMask; table[i] >= 0; i = (i + 1) & tableMask) {
+      int slot = table[i];
+      if (heavyHashes[slot] == hash && sameWord(heavyWords[slot], chars, start, end)) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean sameWord(String word, CharSequence chars, int start, int end) {
+    if (word.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < word.length(); i++) {
+      if (word.charAt(i) != chars.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void insert(int slot) {
+    int i = (int) heavyHashes[slot] & tableMask;
+    while (table[i] >= 0) {
+      i = (i + 1) & tableMask;
+    }
+    table[i] = slot;
+  }
+
+  /**
+   * Remove a counter from the table, shifting later entries of its probe
+   * sequence back so lookups still find them.
+   */
+  private void remove(int slot) {
+    int i = (int) heavyHashes[slot] & tableMask;
+    while (table[i] != slot) {
+      i = (i + 1) & tableMask;
+    }
+    int hole = i;
+    for (int j = (hole + 1) & tableMask; table[j] >= 0; j = (j + 1) & tableMask) {
+      int home = (int) heavyHashes[table[j]] & tableMask;
+      // move the entry if its home isn't between the hole and its position
+      if (((j - home) & tableMask) >= ((j - hole) & tableMask)) {
+        table[hole] = table[j];
+        hole = j;
+      }
+    }
+    table[hole] = -1;
+  }
+
+  // a new counter of 1 may be smaller than its parents
+  private void siftUp(int position) {
+    int slot = heap[position];
+    while (position > 0) {
+      int parent = (position - 1) / 2;
+      if (heavyCounts[heap[parent]] <= heavyCounts[slot]) {
+        break;
+      }
+      heap[position] = heap[parent];
+      heapPosition[heap[position]] = position;
+      position = parent;
+    }
+    heap[position] = slot;
+    heapPosition[slot] = position;
+  }
+
+  // counts only grow, so a counter can only move down the min-heap
+  private void siftDown(int position) {
+    int slot = heap[position];
+    while (true) {
+      int child = 2 * position + 1;
+      if (child >= heavyCount) {
+        break;
+      }
+      if (child + 1 < heavyCount && heavyCounts[heap[child + 1]] < heavyCounts[heap[child]]) {
+        child++;
+      }
+      if (heavyCounts[heap[child]] >= heavyCounts[slot]) {
+        break;
+      }
+      heap[position] = heap[child];
+      heapPosition[heap[position]] = position;
+      position = child;
+    }
+    heap[position] = slot;
+    heapPosition[slot] = position;
+  }
+
+  /**
+   * The word count, including newlines, as Corpus.length counts it.
+   *
+   * @return    exact word count
+   * @since 0.1
+   */
+  public long length() {
+    return wordCount;
+  }
+
+  /**
+   * Number of lines, as Corpus.newlineCount counts them.
+   *
+   * @return    exact line count
+   * @since 0.1
+   */
+  public int newlineCount() {
+    return lineCount;
+  }
+
+  /**
+   * The maximum number of words on a line, as Corpus.maxLineLength.
+   *
+   * @return    exact word count of the longest line
+   * @since 0.1
+   */
+  public int maxLineLength() {
+    return longestLine;
+  }
+
+  /**
+   * Line length below which a given share of the lines fall. Lengths above
+   * 4096 words are reported as 4096.
+   *
+   * @param quantile    share of the lines, between 0 and 1
+   * @return            word count of a line at that quantile
+   * @since 0.1
+   */
+  public int lineLengthQuantile(double quantile) {
+    long target = (long) Math.ceil(quantile * lineCount);
+    long seen = 0;
+    for (int length = 0; length < lineLengths.length; length++) {
+      seen += lineLengths[length];
+      if (seen >= Math.max(1, target)) {
+        return length;
+      }
+    }
+    return longestLine;
+  }
+
+  /**
+   * Estimate how often a word occurs. The estimate is never too low.
+   *
+   * @param word    word to look up
+   * @return        estimated occurence count
+   * @since 0.1
+   */
+  public long estimateFrequency(CharSequence word) {
+    long hash = FNV_OFFSET;
+    for (int i = 0; i < word.length(); i++) {
+      hash = (hash ^ word.charAt(i)) * FNV_PRIME;
+    }
+    return countMinEstimate(mix(hash));
+  }
+
+  /**
+   * Estimate the number of unique words, as Corpus.uniqueWordCount counts
+   * them.
+   *
+   * @return    estimated vocabulary size
+   * @since 0.1
+   */
+  public long estimateUniqueWordCount() {
+    int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        zeros++;
+      }
+    }
+    double alpha;
+    if (m == 16) {
+      alpha = 0.673;
+    } else if (m == 32) {
+      alpha = 0.697;
+    } else if (m == 64) {
+      alpha = 0.709;
+    } else {
+      alpha = 0.7213 / (1 + 1.079 / m);
+    }
+    double estimate = alpha * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0) {
+      // linear counting is more accurate for small vocabularies
+      estimate = m * Math.log((double) m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /**
+   * The most frequent words with their estimated counts, most frequent
+   * first. A word's count may be too high by at most the smallest tracked
+   * count, and every word occurring more than length / topK times is
+   * included.
+   *
+   * @return    up to topK words
+   * @since 0.1
+   */
+  public Word[] topWords() {
+    Word[] words = new Word[heavyCount];
+    for (int i = 0; i < heavyCount; i++) {
+      words[i] = new Word(heavyWords[i], (int) Math.min(Integer.MAX_VALUE, heavyCounts[i]));
+    }
+    Arrays.sort(words, new Comparator<Word>() {
+      public int compare(Word a, Word b) {
+        return (a.frequency != b.frequency) ? Integer.compare(b.frequency, a.frequency)
+                                            : a.text.compareTo(b.text);
+      }
+    });
+    return words;
+  }
+
+  /**
+   * The color encoding a Codebook would choose for the estimated vocabulary.
+   *
+   * @return    estimated encoding
+   * @since 0.1
+   */
+  public TextAsImage.Encoding estimateEncoding() {
+    return Codebook.encodingFor(estimateUniqueWordCount());
+  }
+
+  /**
+   * The color spacing a Codebook would choose for the estimated vocabulary.
+   *
+   * @return    estimated color steps per rank
+   * @since 0.1
+   */
+  public int estimateColorGradient() {
+    return Codebook.colorGradientFor(estimateUniqueWordCount());
+  }
+
+  /**
+   * Width of the image TextAsImage would create for the text. Exact, as it
+   * only depends on exact counts, unless a ragged text has lines of more
+   * than 4096 words.
+   *
+   * @param layout    image creation parameters
+   * @return          width in pixels
+   * @since 0.1
+   */
+  public int imageWidth(Layout layout) {
+    int width = layout.isRagged()
+        ? LineTable.chooseWrapWidth(raggedLineLengths())
+        : layout.textWidth(wordCount, lineCount, longestLine);
+    return width + 2 * layout.padding(width);
+  }
+
+  /**
+   * Height of the image TextAsImage would create for the text.
+   *
+   * @param layout    image creation parameters
+   * @return          height in pixels
+   * @since 0.1
+   */
+  public int imageHeight(Layout layout) {
+    int height;
+    if (layout.isRagged()) {
+      long[] histogram = raggedLineLengths();
+      height = (int) LineTable.rowCount(histogram, LineTable.chooseWrapWidth(histogram));
+    } else {
+      height = layout.textHeight(wordCount, lineCount, longestLine);
+    }
+    return height + 2 * layout.padding(height);
+  }
+
+  /**
+   * Line length histogram as LineTable counts lines, without their newlines.
+   * Every line but the last ends in a newline word.
+   */
+  private long[] raggedLineLengths() {
+    long[] histogram = new long[MAX_TRACKED_LINE + 1];
+    for (int length = 0; length < lineLengths.length; length++) {
+      histogram[Math.max(0, length - 1)] += lineLengths[length];
+    }
+    if (lineCount > 0 && lastLineLength > 0 && lastLineLength <= MAX_TRACKED_LINE) {
+      histogram[lastLineLength - 1]--;
+      histogram[lastLineLength]++;
+    }
+    // as long as the longest line, so no wider wrap widths are tried than LineTable does
+    int longest = histogram.length - 1;
+    while (longest > 0 && histogram[longest] == 0) {
+      longest--;
+    }
+    return Arrays.copyOf(histogram, longest + 1);
+  }
+}
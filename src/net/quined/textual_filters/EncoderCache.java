@@ -0,0 +1,291 @@
+package net.quined.textual_filters;
+
+/**
+ * Keeps recently encoded texts around so that converting the same text again
+ * skips tokenizing, counting and ranking its words.
+ *
+ * Entries are keyed by a 64-bit hash of the text and its length, so a lookup
+ * builds nothing. Each entry also keeps a second, independent 64-bit hash,
+ * and a hit is only taken if both match. Texts are not kept, so a cached
+ * Document costs no copy of its text. The least recently used entries are
+ * evicted once either the number of entries or their estimated memory use
+ * exceeds its bound. Texts too big to fit the memory bound on their own
+ * are built but not cached.
+ *
+ * A cache can be shared between threads. Entries are built outside of its
+ * lock, so a slow miss doesn't hold up other lookups.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+public class EncoderCache {
+  // FNV-1a parameters, applied to UTF-16 chars instead of bytes
+  private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+  private static final long FNV_PRIME = 0x100000001B3L;
+  // multiplier of the second hash, which confirms hits
+  private static final long CHECK_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+  /**
+   * Rough memory use per word of text (a reference in the word array) and per
+   * unique word (its String, histogram entry and codebook slots)
+   */
+  private static final long BYTES_PER_WORD = 8;
+  private static final long BYTES_PER_UNIQUE_WORD = 160;
+
+  private final int maxEntries;
+  private final long maxBytes;
+  // iterates from least to most recently used
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+  private long bytes;
+
+  /**
+   * Metrics
+   */
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * A text's corpus and the word to color mapping built from it. The mapping
+   * is built on first use, as incremental encoding often doesn't need it.
+   */
+  public static final class Entry {
+    // second hash of the text, to confirm that a text with the same key is the same text
+    private final long check;
+    private final Corpus corpus;
+    private Codebook codebook;
+    private final long estimatedBytes;
+
+    private Entry(long check, Corpus corpus) {
+      this.check = check;
+      this.corpus = corpus;
+      // counts the codebook up front, so the cache's size doesn't change later
+      this.estimatedBytes = BYTES_PER_WORD * corpus.length()
+                          + BYTES_PER_UNIQUE_WORD * corpus.uniqueWordCount();
+    }
+
+    public Corpus getCorpus() {
+      return corpus;
+    }
+
+    public synchronized Codebook getCodebook() {
+      if (codebook == null) {
+        codebook = new Codebook(corpus);
+      }
+      return codebook;
+    }
+
+    /**
+     * An encoder for the cached text; cheap, as the mapping is shared.
+     *
+     * @param layout    image creation parameters
+     * @return          object that creates the text's image
+     * @since 0.1
+     */
+    public TextAsImage newEncoder(Layout layout) {
+      return new TextAsImage(getCodebook(), corpus, layout);
+    }
+  }
+
+  // hash and length of a text
+  private static final class Key {
+    private final long hash;
+    private final int length;
+
+    Key(long hash, int length) {
+      this.hash = hash;
+      this.length = length;
+    }
+
+    Key(Fingerprint fingerprint) {
+      this(fingerprint.hash, fingerprint.length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hash == other.hash && length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (hash ^ (hash >>> 32)) * 31 + length;
+    }
+  }
+
+  /**
+   * @param maxEntries    most texts to keep
+   * @param maxBytes      estimated memory the cached texts may use
+   */
+  public EncoderCache(int maxEntries, long maxBytes) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Find or build the encoding state of a text.
+   *
+   * @param text    text to encode
+   * @return        its corpus and codebook
+   * @since 0.1
+   */
+  public Entry get(CharSequence text) {
+    Fingerprint fingerprint = new Fingerprint();
+    fingerprint.add(text, 0, text.length());
+    Key key = new Key(fingerprint);
+    Entry entry = lookup(key);
+    if (entry != null && entry.check == fingerprint.check) {
+      countHit();
+      return entry;
+    }
+    countMiss();
+    Corpus corpus = new Corpus();
+    corpus.loadText(text);
+    return store(key, new Entry(fingerprint.check, corpus));
+  }
+
+  /**
+   * Find or build the encoding state of a Swing Document's text. The document
+   * is hashed and loaded through its Segment API, without copying its text.
+   *
+   * @param doc     document holding the text
+   * @return        its corpus and codebook
+   * @since 0.1
+   */
+  public Entry get(Document doc) {
+    Fingerprint fingerprint = new Fingerprint();
+    Segment segment = new Segment();
+    segment.setPartialReturn(true);
+    int length = doc.getLength();
+    try {
+      while (fingerprint.length < length) {
+        doc.getText(fingerprint.length, length - fingerprint.length, segment);
+        fingerprint.add(segment, 0, segment.count);
+      }
+    } catch (BadLocationException e) {
+      // the document changed while hashing; build its text without caching it
+      countMiss();
+      Corpus corpus = new Corpus();
+      corpus.loadDocument(doc);
+      return new Entry(0, corpus);
+    }
+    Key key = new Key(fingerprint);
+    Entry entry = lookup(key);
+    if (entry != null && entry.check == fingerprint.check) {
+      countHit();
+      return entry;
+    }
+    countMiss();
+    Corpus corpus = new Corpus();
+    corpus.loadDocument(doc);
+    return store(key, new Entry(fingerprint.check, corpus));
+  }
+
+  /**
+   * Two independent 64-bit hashes of a text, built in one pass over its
+   * chunks: FNV-1a for the key, and a multiplicative hash confirming hits.
+   */
+  private static final class Fingerprint {
+    private long hash = FNV_OFFSET;
+    private long check;
+    private int length;
+
+    void add(CharSequence chars, int from, int to) {
+      for (int i = from; i < to; i++) {
+        char c = chars.charAt(i);
+        hash = (hash ^ c) * FNV_PRIME;
+        check = Long.rotateLeft((check + c + 1) * CHECK_MULTIPLIER, 29);
+      }
+      length += to - from;
+    }
+  }
+
+  private synchronized Entry lookup(Key key) {
+    return entries.get(key);
+  }
+
+  private synchronized void countHit() {
+    hits++;
+  }
+
+  private synchronized void countMiss() {
+    misses++;
+  }
+
+  /**
+   * Add a freshly built entry and evict least recently used ones.
+   *
+   * @return    the cached entry, which is an earlier one if another thread
+   *            built the same text first
+   */
+  private synchronized Entry store(Key key, Entry entry) {
+    if (entry.estimatedBytes > maxBytes || maxEntries < 1) {
+      return entry;
+    }
+    Entry existing = entries.get(key);
+    if (existing != null && existing.check == entry.check) {
+      return existing;
+    }
+    // a different text with the same hash gives way to the newer one
+    Entry replaced = entries.put(key, entry);
+    if (replaced != null) {
+      bytes -= replaced.estimatedBytes;
+    }
+    bytes += entry.estimatedBytes;
+    Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+    while (entries.size() > maxEntries || bytes > maxBytes) {
+      bytes -= eldest.next().getValue().estimatedBytes;
+      eldest.remove();
+      evictions++;
+    }
+    return entry;
+  }
+
+  /**
+   * Drop every cached text. Metrics are kept.
+   *
+   * @since 0.1
+   */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long estimatedBytes() {
+    return bytes;
+  }
+
+  public synchronized long hitCount() {
+    return hits;
+  }
+
+  public synchronized long missCount() {
+    return misses;
+  }
+
+  public synchronized long evictionCount() {
+    return evictions;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%d texts, ~%d KB, %d hits, %d misses, %d evictions",
+                         entries.size(), bytes / 1024, hits, misses, evictions);
+  }
+}
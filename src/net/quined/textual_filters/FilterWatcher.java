@@ -0,0 +1,406 @@
+package net.quined.textual_filters;
+
+/**
+ * Watches a project folder and decodes filtered images as filter tools write
+ * them, without anyone clicking "Load Filtered Image".
+ *
+ * Follows the Gui's file naming: the image of project p is decoded with the
+ * codebook p.codebook, plus the line table p.lines for ragged layouts, and
+ * p_filtered.bmp or p_filtered.png is turned into p_filtered.txt. Projects
+ * are found through their codebook files, or can be registered with a
+ * decoder up front.
+ *
+ * An image is decoded once it has not changed for a short while, as tools
+ * often write files in several steps. Decoding runs on a fixed pool of
+ * threads with a bounded queue; when the queue is full the watching thread
+ * decodes the image itself, which slows down event handling instead of
+ * queueing work without bound. Images that can't be read yet, e.g. because
+ * they are still being written, are retried a few times.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+public class FilterWatcher implements Runnable, Closeable {
+  // <project>_filtered.<format>, in the formats TextAsImage writes
+  private static final Pattern FILTERED_IMAGE = Pattern.compile("(.+)_filtered\\.(bmp|png)");
+  private static final String[] IMAGE_FORMATS = {"bmp", "png"};
+  // <project>.codebook and <project>.lines, which images are decoded with
+  private static final Pattern SIDECAR = Pattern.compile(
+      "(.+)(" + Pattern.quote(Gui.CODEBOOK_SUFFIX) + "|" + Pattern.quote(Gui.LINES_SUFFIX) + ")");
+  private static final String TEXT_SUFFIX = "_filtered.txt";
+  private static final String PARTIAL_SUFFIX = ".partial";
+
+  // how long an image must stay unchanged before it is decoded
+  private static final long SETTLE_MILLIS = 200;
+  // how long to wait for events when nothing is pending
+  private static final long IDLE_MILLIS = 1000;
+  private static final int MAX_ATTEMPTS = 5;
+
+  private final Path directory;
+  private final WatchService watchService;
+  private final ThreadPoolExecutor pool;
+  private volatile boolean running = true;
+
+  // decoders of registered projects, and of projects found by their codebook
+  private final Map<String, TextAsImage> registered = new ConcurrentHashMap<String, TextAsImage>();
+  private final Map<String, OpenedCodebook> discovered = new ConcurrentHashMap<String, OpenedCodebook>();
+
+  // images waiting to settle, with the time they last changed; watching thread only
+  private final HashMap<Path, Long> pending = new HashMap<Path, Long>();
+  // images being decoded, and failed images to put back into pending
+  private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+  private final ConcurrentLinkedQueue<Path> retries = new ConcurrentLinkedQueue<Path>();
+  private final Map<Path, Integer> attempts = new ConcurrentHashMap<Path, Integer>();
+
+  /**
+   * Metrics
+   */
+  private final AtomicLong decoded = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  // a codebook file, and line table file of ragged layouts, and when and
+  // how big they were written, to notice rewrites the watch events missed
+  private static final class OpenedCodebook {
+    final FileStamp codebook;
+    final FileStamp lines;
+    final TextAsImage decoder;
+
+    OpenedCodebook(FileStamp codebook, FileStamp lines, TextAsImage decoder) {
+      this.codebook = codebook;
+      this.lines = lines;
+      this.decoder = decoder;
+    }
+  }
+
+  // modification time and size of a file; timestamps alone may be too
+  // coarse to tell two writes within a second apart
+  private static final class FileStamp {
+    final FileTime modified;
+    final long size;
+
+    FileStamp(Path file) throws IOException {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      modified = attributes.lastModifiedTime();
+      size = attributes.size();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FileStamp)) {
+        return false;
+      }
+      FileStamp other = (FileStamp) o;
+      return modified.equals(other.modified) && size == other.size;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * modified.hashCode() + Long.hashCode(size);
+    }
+  }
+
+  /**
+   * @param directory       folder holding codebooks and filtered images
+   * @param threads         number of images decoded at once
+   * @param queueCapacity   images that may wait for a thread before the
+   *                        watching thread decodes them itself
+   * @throws IOException    if the folder can't be watched
+   */
+  public FilterWatcher(Path directory, int threads, int queueCapacity) throws IOException {
+    this.directory = directory;
+    this.watchService = directory.getFileSystem().newWatchService();
+    directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                       StandardWatchEventKinds.ENTRY_MODIFY);
+    this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                                       new ArrayBlockingQueue<Runnable>(queueCapacity),
+                                       new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  /**
+   * Decode a project's images with a given decoder rather than its codebook
+   * file.
+   *
+   * @param project     project name, the prefix of its image files
+   * @param decoder     interprets the project's images
+   * @since 0.1
+   */
+  public void register(String project, TextAsImage decoder) {
+    registered.put(project, decoder);
+  }
+
+  /**
+   * Decode images until closed. Images already in the folder whose text is
+   * missing or older are decoded first.
+   *
+   * @since 0.1
+   */
+  @Override
+  public void run() {
+    try {
+      scan();
+      while (running) {
+        WatchKey key = watchService.poll(pending.isEmpty() ? IDLE_MILLIS : SETTLE_MILLIS,
+                                         TimeUnit.MILLISECONDS);
+        if (key != null) {
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+              // events were lost; look at everything again
+              discovered.clear();
+              scan();
+            } else {
+              noteImage(directory.resolve((Path) event.context()), true);
+            }
+          }
+          key.reset();
+        }
+        Path retry;
+        while ((retry = retries.poll()) != null) {
+          pending.put(retry, System.currentTimeMillis());
+        }
+        submitSettled();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ClosedWatchServiceException e) {
+      // closed while waiting for events
+    }
+  }
+
+  /**
+   * Queue every filtered image in the folder whose text is out of date. A
+   * folder that can't be listed is tried again on the next overflow.
+   */
+  private void scan() {
+    try {
+      DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+      try {
+        for (Path file : files) {
+          noteImage(file, false);
+        }
+      } finally {
+        files.close();
+      }
+    } catch (IOException | DirectoryIteratorException e) {
+      System.out.format("couldn't list %s: %s%n", directory, e.getMessage());
+    }
+  }
+
+  /**
+   * Add an image to the pending images if it is a filtered image. A new
+   * codebook or line table queues its project's images again, as they may
+   * have failed while it was missing. Files that vanish or can't be read
+   * are skipped.
+   *
+   * @param file      changed or existing file
+   * @param changed   true if the file just changed, false to only pick it
+   *                  up if its text is missing or older
+   */
+  private void noteImage(Path file, boolean changed) {
+    String name = file.getFileName().toString();
+    try {
+      Matcher m = FILTERED_IMAGE.matcher(name);
+      if (m.matches()) {
+        if (!changed) {
+          Path text = textFile(m.group(1));
+          if (Files.exists(text)
+              && Files.getLastModifiedTime(text).compareTo(Files.getLastModifiedTime(file)) >= 0) {
+            return;
+          }
+        }
+        pending.put(file, System.currentTimeMillis());
+      } else if (changed) {
+        Matcher sidecar = SIDECAR.matcher(name);
+        if (sidecar.matches()) {
+          // reopen it even if its time and size look the same
+          discovered.remove(sidecar.group(1));
+          requeue(sidecar.group(1));
+        }
+      }
+    } catch (IOException e) {
+      System.out.format("couldn't check %s: %s%n", name, e.getMessage());
+    }
+  }
+
+  /**
+   * Queue a project's images whose text is missing or older, with a fresh
+   * set of attempts.
+   *
+   * @param project     project whose codebook or line table changed
+   */
+  private void requeue(String project) throws IOException {
+    for (String format : IMAGE_FORMATS) {
+      Path image = directory.resolve(project + "_filtered." + format);
+      if (Files.exists(image)) {
+        attempts.remove(image);
+        noteImage(image, false);
+      }
+    }
+  }
+
+  /**
+   * Hand images that stopped changing to the decoding threads. Images still
+   * being decoded wait, so one image is never decoded twice at once.
+   */
+  private void submitSettled() {
+    long settledBefore = System.currentTimeMillis() - SETTLE_MILLIS;
+    Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Path, Long> entry = it.next();
+      final Path image = entry.getKey();
+      if (entry.getValue() <= settledBefore && inFlight.add(image)) {
+        it.remove();
+        pool.execute(new Runnable() {
+          public void run() {
+            decode(image);
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Decode one image and write its text next to it.
+   *
+   * @param image     filtered image file
+   */
+  private void decode(Path image) {
+    try {
+      Matcher m = FILTERED_IMAGE.matcher(image.getFileName().toString());
+      m.matches();
+      String project = m.group(1);
+      TextAsImage decoder = decoderFor(project);
+      BufferedImage loaded = ImageIO.read(image.toFile());
+      if (loaded == null) {
+        throw new IOException("not a complete image");
+      }
+      Corpus text = decoder.openImage(loaded);
+
+      // replace the text in one step, so readers never see half of it
+      Path target = textFile(project);
+      Path partial = directory.resolve(target.getFileName() + PARTIAL_SUFFIX);
+      Files.write(partial, text.getOriginalText().getBytes(StandardCharsets.UTF_8));
+      Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      attempts.remove(image);
+      decoded.incrementAndGet();
+      System.out.format("decoded %s into %s%n", image.getFileName(), target.getFileName());
+    } catch (IOException | RuntimeException e) {
+      // the image or codebook may still be being written
+      int attempt = attempts.merge(image, 1, Integer::sum);
+      if (attempt < MAX_ATTEMPTS && running) {
+        retries.add(image);
+      } else {
+        attempts.remove(image);
+        failed.incrementAndGet();
+        System.out.format("couldn't decode %s: %s%n", image.getFileName(), e.getMessage());
+      }
+    } finally {
+      inFlight.remove(image);
+    }
+  }
+
+  /**
+   * Find the decoder of a project, reopening its codebook if it or the line
+   * table was rewritten since it was last opened.
+   *
+   * @param project     project name
+   * @return            decoder for the project's images
+   * @throws IOException  if the project has no readable codebook
+   */
+  private TextAsImage decoderFor(String project) throws IOException {
+    TextAsImage decoder = registered.get(project);
+    if (decoder != null) {
+      return decoder;
+    }
+    Path codebook = directory.resolve(project + Gui.CODEBOOK_SUFFIX);
+    Path lines = directory.resolve(project + Gui.LINES_SUFFIX);
+    FileStamp codebookStamp = new FileStamp(codebook);
+    FileStamp linesStamp = Files.exists(lines) ? new FileStamp(lines) : null;
+    OpenedCodebook opened = discovered.get(project);
+    if (opened == null || !opened.codebook.equals(codebookStamp)
+        || !Objects.equals(opened.lines, linesStamp)) {
+      decoder = TextAsImage.openCodebook(codebook.toString());
+      if (decoder.getLayout().isRagged()) {
+        // without its table the image can't be split into lines; retried like a missing codebook
+        decoder = decoder.withLineTable(LineTable.open(lines.toString()));
+      }
+      opened = new OpenedCodebook(codebookStamp, linesStamp, decoder);
+      discovered.put(project, opened);
+    }
+    return opened.decoder;
+  }
+
+  private Path textFile(String project) {
+    return directory.resolve(project + TEXT_SUFFIX);
+  }
+
+  /**
+   * Number of images decoded so far.
+   *
+   * @return      count of text files written
+   * @since 0.1
+   */
+  public long decodedCount() {
+    return decoded.get();
+  }
+
+  /**
+   * Number of images given up on after repeated failures.
+   *
+   * @return      count of images without text
+   * @since 0.1
+   */
+  public long failedCount() {
+    return failed.get();
+  }
+
+  /**
+   * Stop watching and wait for images being decoded.
+   *
+   * @throws IOException  if the watch service can't be closed
+   * @since 0.1
+   */
+  @Override
+  public void close() throws IOException {
+    running = false;
+    watchService.close();
+    pool.shutdown();
+    try {
+      pool.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
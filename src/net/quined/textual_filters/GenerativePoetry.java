@@ -1,12 +1,27 @@
 package net.quined.textual_filters;
 
 import java.io.*;
+import java.nio.file.Paths;
 import javax.swing.SwingUtilities;
 import javax.swing.*;
 
 public class GenerativePoetry {
 
+  // lines generated per write when printing poetry in bulk
+  private static final int LINES_PER_FLUSH = 1024;
+  private static final int MAX_WORDS_PER_LINE = 64;
+  // images waiting per decoding thread before the watcher decodes them itself
+  private static final int QUEUED_IMAGES_PER_THREAD = 4;
+
   public static void main(String[] args) {
+    if (args.length >= 2 && args[0].equals("--watch")) {
+      watchFilters(args);
+      return;
+    }
+    if (args.length >= 2 && args[1].matches("\\d+")) {
+      generatePoetry(args);
+      return;
+    }
     //Schedule a job for the event dispatch thread:
     //creating and showing this application's GUI.
     SwingUtilities.invokeLater(new Runnable() {
@@ -40,4 +55,52 @@ public class GenerativePoetry {
     }
     */
   }
+
+  /**
+   * Decode filtered images in a folder as they appear, until killed.
+   * Arguments: --watch, the folder, and optionally the number of threads.
+   */
+  private static void watchFilters(String[] args) {
+    int threads = (args.length >= 3) ? Integer.parseInt(args[2])
+                                     : Runtime.getRuntime().availableProcessors();
+    try {
+      FilterWatcher watcher = new FilterWatcher(Paths.get(args[1]), threads,
+                                                threads * QUEUED_IMAGES_PER_THREAD);
+      System.out.format("watching %s for filtered images%n", args[1]);
+      watcher.run();
+    } catch (IOException e) {
+      System.out.println("unable to watch " + args[1]);
+    }
+  }
+
+  /**
+   * Print generated lines without starting the GUI.
+   * Arguments: text file to learn from, number of lines, and optionally a
+   * decoded (filtered) text file that seeds and steers the generator.
+   */
+  private static void generatePoetry(String[] args) {
+    // the generator reads the source once, so keep its words packed
+    Corpus source = new Corpus();
+    source.setPackTokens(true);
+    source.loadFile(args[0]);
+    long lineCount = Long.parseLong(args[1]);
+    MarkovGenerator generator = new MarkovGenerator(source);
+    if (args.length >= 3) {
+      Corpus filtered = new Corpus(args[2]);
+      generator.continueFrom(filtered);
+      generator.steer(filtered, 4);
+    }
+
+    PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), false);
+    StringBuilder lines = new StringBuilder();
+    for (long i = 0; i < lineCount; i++) {
+      generator.appendLine(lines, MAX_WORDS_PER_LINE);
+      if ((i + 1) % LINES_PER_FLUSH == 0) {
+        out.append(lines);
+        lines.setLength(0);
+      }
+    }
+    out.append(lines);
+    out.flush();
+  }
 }
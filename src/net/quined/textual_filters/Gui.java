@@ -17,24 +17,28 @@ import java.io.*;
 import java.awt.*;
 import java.awt.event.*;
 
-// for ImagePanel
-import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import javax.imageio.ImageIO;
 import javax.swing.JPanel;
 
 public class Gui extends JPanel implements ActionListener {
   private static final String DEFAULT_FILE_FIELD = "Choose a file to open or provide a new filename:";
+  // written next to each image so it can be interpreted without its text
+  static final String CODEBOOK_SUFFIX = ".codebook";
+  // line table of ragged images, written next to the codebook
+  static final String LINES_SUFFIX = ".lines";
+  private static final int CACHED_TEXTS = 16;
+  private static final long CACHED_BYTES = 64L * 1024 * 1024;
   private JButton openButton;
   private JButton statsButton;
   private JButton generateImageButton;
   private JButton interpretImageButton;
   private JCheckBox addPadding;
   private JCheckBox syncNewlines;
+  private JCheckBox indexedColors;
+  private JCheckBox wrapLines;
   private JFileChooser fc;
   private File file;
 
@@ -51,6 +55,10 @@ public class Gui extends JPanel implements ActionListener {
 
   private Corpus corpus;
   private TextAsImage tai;
+  // re-encodes only what changed since the last conversion
+  private IncrementalEncoder encoder = new IncrementalEncoder();
+  // converting a text again, e.g. after undoing edits, skips all setup
+  private EncoderCache cache = new EncoderCache(CACHED_TEXTS, CACHED_BYTES);
 
   final static Color  HILIT_COLOR = Color.LIGHT_GRAY;
   final static Color  ERROR_COLOR = Color.PINK;
@@ -75,6 +83,8 @@ public class Gui extends JPanel implements ActionListener {
 
     syncNewlines = new JCheckBox("Sync vertical axis with newlines");
     addPadding = new JCheckBox("Add padding to image");
+    indexedColors = new JCheckBox("Store words as palette indices");
+    wrapLines = new JCheckBox("Wrap long lines");
 
     //Create a file chooser
     fc = new JFileChooser();
@@ -92,6 +102,8 @@ public class Gui extends JPanel implements ActionListener {
     filePanel.add(statsButton);
     filePanel.add(syncNewlines);
     filePanel.add(addPadding);
+    filePanel.add(indexedColors);
+    filePanel.add(wrapLines);
 
     origTextArea.setColumns(50);
     origTextArea.setLineWrap(true);
@@ -154,28 +166,47 @@ public class Gui extends JPanel implements ActionListener {
     } else if (e.getSource() == generateImageButton) {
       // generate image from content in text field
       projectName = nameField.getText();
-      corpus = new Corpus();
-      corpus.loadText(origTextArea.getText());
-      tai = new TextAsImage(corpus);
-
-      tai.setToPad(addPadding.isSelected());
-      tai.setSyncNewlineAndVertical(syncNewlines.isSelected());
-
-      BufferedImage img = tai.createImage();
+      EncoderCache.Entry cached = cache.get(origTextArea.getDocument());
+      corpus = cached.getCorpus();
+      Layout layout = Layout.DEFAULT.withPadding(addPadding.isSelected())
+                                    .withSyncNewlineAndVertical(syncNewlines.isSelected())
+                                    .withIndexedColor(indexedColors.isSelected())
+                                    .withRagged(wrapLines.isSelected());
+      BufferedImage img = encoder.update(corpus, cached::getCodebook, layout);
+      tai = encoder.getEncoder();
+      String imageFile = projectName + "." + tai.imageFormat();
       try {
-        // save image
-        File outputfile = new File(projectName+".bmp");
-        ImageIO.write(img, "bmp", outputfile);
+        // save image and the codebook needed to interpret it later
+        File outputfile = new File(imageFile);
+        ImageIO.write(img, tai.imageFormat(), outputfile);
+        tai.saveCodebook(projectName + CODEBOOK_SUFFIX);
+        if (tai.getLineTable() != null) {
+          tai.getLineTable().save(projectName + LINES_SUFFIX);
+        }
         // display image
         origImagePanel.setImage(img);
       } catch (IOException excep) {
-        System.out.println("unable to write " + projectName + ".bmp");
+        System.out.println("unable to write " + imageFile);
       }
     } else if (e.getSource() == interpretImageButton) {
-      modImagePanel.loadImage(projectName + "_filtered.bmp");
+      projectName = nameField.getText();
+      if (tai == null) {
+        // interpret images of an earlier session using its saved codebook
+        try {
+          tai = TextAsImage.openCodebook(projectName + CODEBOOK_SUFFIX);
+          if (tai.getLayout().isRagged()) {
+            tai = tai.withLineTable(LineTable.open(projectName + LINES_SUFFIX));
+          }
+        } catch (IOException excep) {
+          modTextArea.setText("no codebook for project " + projectName);
+          return;
+        }
+      }
+      String filteredFile = projectName + "_filtered." + tai.imageFormat();
+      modImagePanel.loadImage(filteredFile);
       String filteredText;
       try {
-        Corpus c = tai.openImage(projectName + "_filtered.bmp");
+        Corpus c = tai.openImage(filteredFile);
         filteredText = c.getOriginalText();
       } catch (IOException excep) {
         filteredText = "error loading filtered text";
@@ -202,28 +233,3 @@ public class Gui extends JPanel implements ActionListener {
     frame.setVisible(true);
   }
 }
-
-// For opening and drawing an image file onto the GUI
-class ImagePanel extends JPanel {
-    private BufferedImage image;
-
-    public void setImage(BufferedImage img) {
-      image = img;
-      repaint();
-    }
-
-    public void loadImage (String filename) {
-       try {
-          image = ImageIO.read(new File(filename));
-          repaint();
-       } catch (IOException ex) {
-            // handle exception...
-       }
-    }
-
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        g.drawImage(image, 0, 0, 256, 256, null);
-    }
-}
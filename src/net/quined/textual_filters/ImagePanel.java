@@ -0,0 +1,277 @@
+package net.quined.textual_filters;
+
+/**
+ * For opening and drawing an image file onto the GUI.
+ *
+ * Images are not drawn directly: a pyramid of successively halved copies is
+ * built once, off the event dispatch thread, and each repaint draws from the
+ * smallest level that still covers the on-screen size. Only the tiles of that
+ * level which intersect the visible clip are drawn, so zooming and panning
+ * over very large images stays cheap.
+ *
+ * Mouse wheel zooms around the cursor, dragging pans, and a double click
+ * resets the view.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import javax.imageio.ImageIO;
+import javax.swing.JPanel;
+import javax.swing.SwingWorker;
+
+class ImagePanel extends JPanel {
+  // levels smaller than this on their longest side are not worth building
+  private static final int MIN_LEVEL_SIZE = 64;
+  // edge length of the square tiles drawn from a pyramid level
+  private static final int TILE_SIZE = 256;
+  private static final double MIN_ZOOM = 1.0;
+  private static final double MAX_ZOOM = 64.0;
+  private static final double ZOOM_STEP = 1.25;
+
+  // levels[0] is the full resolution image, each next level is half as large
+  private BufferedImage[] levels;
+  // the pyramid that is currently being built, if any
+  private PyramidLoader loader;
+
+  // zoom factor on top of fitting the image into the panel
+  private double zoom = MIN_ZOOM;
+  // position of the image's top-left corner within the panel
+  private double offsetX;
+  private double offsetY;
+
+  public ImagePanel() {
+    MouseAdapter navigation = new MouseAdapter() {
+      private int lastX;
+      private int lastY;
+
+      @Override
+      public void mousePressed(MouseEvent e) {
+        lastX = e.getX();
+        lastY = e.getY();
+      }
+
+      @Override
+      public void mouseDragged(MouseEvent e) {
+        pan(e.getX() - lastX, e.getY() - lastY);
+        lastX = e.getX();
+        lastY = e.getY();
+      }
+
+      @Override
+      public void mouseClicked(MouseEvent e) {
+        if (e.getClickCount() == 2) {
+          resetView();
+        }
+      }
+
+      @Override
+      public void mouseWheelMoved(MouseWheelEvent e) {
+        double factor = Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation());
+        zoomAround(e.getX(), e.getY(), factor);
+      }
+    };
+    addMouseListener(navigation);
+    addMouseMotionListener(navigation);
+    addMouseWheelListener(navigation);
+  }
+
+  /**
+   * Display an image that is already in memory. The preview pyramid is built
+   * in the background; the panel repaints once it is ready.
+   *
+   * @param img     image to display
+   * @since 0.1
+   */
+  public void setImage(final BufferedImage img) {
+    startLoader(new PyramidLoader() {
+      @Override
+      protected BufferedImage[] doInBackground() {
+        return buildPyramid(img);
+      }
+    });
+  }
+
+  /**
+   * Decode an image file and display it. Both decoding and building the
+   * preview pyramid happen off the event dispatch thread.
+   *
+   * @param filename    name of the image file to display
+   * @since 0.1
+   */
+  public void loadImage(final String filename) {
+    startLoader(new PyramidLoader() {
+      @Override
+      protected BufferedImage[] doInBackground() throws IOException {
+        BufferedImage img = ImageIO.read(new File(filename));
+        if (img == null) {
+          throw new IOException("no image reader for " + filename);
+        }
+        return buildPyramid(img);
+      }
+    });
+  }
+
+  /**
+   * Cancel any pending pyramid and start building a new one.
+   *
+   * @param worker      background task producing the pyramid levels
+   */
+  private void startLoader(PyramidLoader worker) {
+    if (loader != null) {
+      loader.cancel(true);
+    }
+    loader = worker;
+    worker.execute();
+  }
+
+  // Builds pyramid levels in the background and installs them on the EDT
+  private abstract class PyramidLoader extends SwingWorker<BufferedImage[], Void> {
+    @Override
+    protected void done() {
+      if (this != loader) {
+        // superseded by a newer image
+        return;
+      }
+      loader = null;
+      try {
+        levels = get();
+        resetView();
+      } catch (CancellationException e) {
+        // a newer image replaced this one
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        System.out.println("unable to display image: " + e.getCause().getMessage());
+      }
+    }
+  }
+
+  /**
+   * Build the mipmap pyramid for an image, halving each level with bilinear
+   * filtering until it is small enough to always be drawn whole.
+   *
+   * @param img     full resolution image, used as level 0
+   * @return        pyramid levels, largest first
+   */
+  private static BufferedImage[] buildPyramid(BufferedImage img) {
+    List<BufferedImage> pyramid = new ArrayList<BufferedImage>();
+    pyramid.add(img);
+    BufferedImage level = img;
+    while (Math.max(level.getWidth(), level.getHeight()) > 2 * MIN_LEVEL_SIZE
+           && !Thread.currentThread().isInterrupted()) {
+      int w = Math.max(1, level.getWidth() / 2);
+      int h = Math.max(1, level.getHeight() / 2);
+      BufferedImage half = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = half.createGraphics();
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                         RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(level, 0, 0, w, h, null);
+      g.dispose();
+      pyramid.add(half);
+      level = half;
+    }
+    return pyramid.toArray(new BufferedImage[0]);
+  }
+
+  /**
+   * Show the whole image fitted into the panel.
+   *
+   * @since 0.1
+   */
+  public void resetView() {
+    zoom = MIN_ZOOM;
+    offsetX = 0;
+    offsetY = 0;
+    repaint();
+  }
+
+  private void pan(int dx, int dy) {
+    offsetX += dx;
+    offsetY += dy;
+    repaint();
+  }
+
+  /**
+   * Change the zoom factor while keeping the image point under (x, y) fixed.
+   */
+  private void zoomAround(int x, int y, double factor) {
+    double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+    double applied = newZoom / zoom;
+    offsetX = x - (x - offsetX) * applied;
+    offsetY = y - (y - offsetY) * applied;
+    zoom = newZoom;
+    if (zoom == MIN_ZOOM) {
+      offsetX = 0;
+      offsetY = 0;
+    }
+    repaint();
+  }
+
+  @Override
+  protected void paintComponent(Graphics g) {
+    super.paintComponent(g);
+    if (levels == null) {
+      return;
+    }
+    BufferedImage full = levels[0];
+    double fit = Math.min((double) getWidth() / full.getWidth(),
+                          (double) getHeight() / full.getHeight());
+    double scale = fit * zoom;
+
+    // the smallest level that is still at least as large as what is drawn
+    int levelIndex = 0;
+    while (levelIndex + 1 < levels.length
+           && levels[levelIndex + 1].getWidth() >= full.getWidth() * scale) {
+      levelIndex++;
+    }
+    BufferedImage level = levels[levelIndex];
+    double levelScale = scale * full.getWidth() / level.getWidth();
+
+    Graphics2D g2 = (Graphics2D) g;
+    // magnified text images should show crisp pixels, one per word
+    g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                        levelScale >= 1.0
+                        ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+                        : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+    Rectangle clip = g.getClipBounds();
+    if (clip == null) {
+      clip = new Rectangle(0, 0, getWidth(), getHeight());
+    }
+    // visible region in level pixel coordinates
+    int firstCol = Math.max(0, (int) Math.floor((clip.x - offsetX) / levelScale));
+    int firstRow = Math.max(0, (int) Math.floor((clip.y - offsetY) / levelScale));
+    int lastCol = Math.min(level.getWidth(),
+        (int) Math.ceil((clip.x + clip.width - offsetX) / levelScale));
+    int lastRow = Math.min(level.getHeight(),
+        (int) Math.ceil((clip.y + clip.height - offsetY) / levelScale));
+
+    // only draw the tiles that intersect the visible region
+    for (int ty = (firstRow / TILE_SIZE) * TILE_SIZE; ty < lastRow; ty += TILE_SIZE) {
+      for (int tx = (firstCol / TILE_SIZE) * TILE_SIZE; tx < lastCol; tx += TILE_SIZE) {
+        int sx2 = Math.min(tx + TILE_SIZE, level.getWidth());
+        int sy2 = Math.min(ty + TILE_SIZE, level.getHeight());
+        int dx1 = (int) Math.round(offsetX + tx * levelScale);
+        int dy1 = (int) Math.round(offsetY + ty * levelScale);
+        int dx2 = (int) Math.round(offsetX + sx2 * levelScale);
+        int dy2 = (int) Math.round(offsetY + sy2 * levelScale);
+        g2.drawImage(level, dx1, dy1, dx2, dy2, tx, ty, sx2, sy2, null);
+      }
+    }
+  }
+}
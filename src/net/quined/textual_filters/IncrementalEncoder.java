@@ -0,0 +1,178 @@
+package net.quined.textual_filters;
+
+/**
+ * Re-encodes a text as an image after small edits without redoing all the
+ * work of a fresh TextAsImage.
+ *
+ * The new text is compared line by line with the previously encoded one. The
+ * word frequency changes of the edited lines decide if the word to color
+ * mapping still holds; if it does, the mapping is reused and, when the image
+ * dimensions are unchanged, only the image rows of the edited lines are
+ * redrawn. Otherwise the image is rebuilt from scratch.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+public class IncrementalEncoder {
+  // last encoded text, its encoder and image
+  private Corpus corpus;
+  private TextAsImage tai;
+  private BufferedImage image;
+
+  // image parameters the last image was built with
+  private Layout layout;
+
+  /**
+   * Encode an updated text, reusing as much of the previous encoding as
+   * possible. The returned image may be the previous image, redrawn in place.
+   *
+   * @param updated     corpus with the new text
+   * @param newLayout   image creation parameters
+   * @return            image of the updated text
+   * @since 0.1
+   */
+  public BufferedImage update(Corpus updated, Layout newLayout) {
+    return update(updated, null, newLayout);
+  }
+
+  /**
+   * Encode an updated text whose word to color mapping may already be
+   * known, e.g. from an EncoderCache. The mapping is only asked for if the
+   * image has to be rebuilt.
+   *
+   * @param updated     corpus with the new text
+   * @param codebook    supplies the mapping of the updated corpus, or null
+   * @param newLayout   image creation parameters
+   * @return            image of the updated text
+   * @since 0.1
+   */
+  public BufferedImage update(Corpus updated, Supplier<Codebook> codebook, Layout newLayout) {
+    if (tai == null || !newLayout.equals(layout)) {
+      layout = newLayout;
+      return encodeFully(updated, codebook);
+    }
+    if (updated == corpus) {
+      // a cached corpus of the same text
+      return image;
+    }
+
+    int oldLines = corpus.newlineCount();
+    int newLines = updated.newlineCount();
+    // lines before and after the edited region are unchanged
+    int prefix = 0;
+    int maxCommon = Math.min(oldLines, newLines);
+    while (prefix < maxCommon && corpus.lineEquals(prefix, updated, prefix)) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < maxCommon - prefix
+           && corpus.lineEquals(oldLines - 1 - suffix, updated, newLines - 1 - suffix)) {
+      suffix++;
+    }
+    if (prefix == oldLines && prefix == newLines) {
+      // nothing changed
+      corpus = updated;
+      return image;
+    }
+
+    Map<String, Integer> delta = new HashMap<String, Integer>();
+    countLines(corpus, prefix, oldLines - suffix, -1, delta);
+    countLines(updated, prefix, newLines - suffix, 1, delta);
+    int newlineDelta = Math.max(0, newLines - 1) - Math.max(0, oldLines - 1);
+    if (newlineDelta != 0) {
+      delta.put(Corpus.NEWLINE, newlineDelta);
+    }
+    // edits that only move words between lines leave frequencies alone
+    delta.values().removeIf(d -> d == 0);
+
+    if (!tai.getCodebook().ranksHold(updated, delta.keySet())) {
+      // the word to color mapping shifted
+      return encodeFully(updated, codebook);
+    }
+
+    // same ranks, but the counts shown and saved follow the new text
+    Codebook mapping = delta.isEmpty() ? tai.getCodebook() : tai.getCodebook().withFrequencies(updated);
+    TextAsImage next = new TextAsImage(mapping, updated, layout);
+    if (next.getImageWidth() != image.getWidth() || next.getImageHeight() != image.getHeight()) {
+      // same mapping, but every pixel moves
+      corpus = updated;
+      tai = next;
+      image = next.createImage();
+      return image;
+    }
+
+    int fromRow;
+    int toRow;
+    if (layout.isSyncNewlineAndVertical()) {
+      // same dimensions means the same number of rows
+      fromRow = next.rowOfLine(prefix);
+      toRow = next.rowOfLine(newLines - suffix);
+      if (tai.rowOfLine(oldLines - suffix) != toRow) {
+        // wrapped lines took a different number of rows, moving the lines after them
+        toRow = image.getHeight();
+      }
+    } else {
+      int firstChanged = (prefix < newLines) ? updated.lineStart(prefix) : updated.length();
+      if (prefix > 0 && prefix < newLines) {
+        // the newline ending the last unchanged line may have been added or moved
+        firstChanged--;
+      }
+      fromRow = next.rowOfWord(firstChanged);
+      if (updated.length() == corpus.length() && suffix > 0) {
+        // words after the edit stay in place
+        toRow = next.rowOfWord(updated.lineStart(newLines - suffix)) + 1;
+      } else {
+        toRow = image.getHeight();
+      }
+    }
+    toRow = Math.min(toRow, image.getHeight());
+    next.encodeRows(image, fromRow, toRow);
+
+    corpus = updated;
+    tai = next;
+    return image;
+  }
+
+  /**
+   * The encoder used for the last image, e.g. for decoding filtered images.
+   *
+   * @return      encoder of the last text, or null before the first update
+   * @since 0.1
+   */
+  public TextAsImage getEncoder() {
+    return tai;
+  }
+
+  private BufferedImage encodeFully(Corpus updated, Supplier<Codebook> codebook) {
+    corpus = updated;
+    tai = new TextAsImage((codebook != null) ? codebook.get() : new Codebook(updated), updated, layout);
+    image = tai.createImage();
+    return image;
+  }
+
+  /**
+   * Add the word counts of a range of lines to a frequency delta. Newlines
+   * are left out; their count only depends on the number of lines.
+   *
+   * @param c           corpus holding the lines
+   * @param fromLine    first line to count
+   * @param toLine      line after the last line to count
+   * @param sign        -1 to subtract the counts, 1 to add them
+   * @param delta       map from words to frequency changes
+   */
+  private static void countLines(Corpus c, int fromLine, int toLine, int sign, Map<String, Integer> delta) {
+    for (int line = fromLine; line < toLine; line++) {
+      int start = c.lineStart(line);
+      int end = start + c.lineLength(line);
+      for (int i = start; i < end; i++) {
+        delta.merge(c.getWord(i), sign, Integer::sum);
+      }
+    }
+  }
+}
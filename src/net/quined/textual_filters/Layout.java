@@ -0,0 +1,176 @@
+package net.quined.textual_filters;
+
+/**
+ * Image creation parameters: how the words of a text are arranged in an
+ * image and how the pixels are stored. Layouts are immutable; the with*
+ * methods return modified copies.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+public final class Layout {
+  // bits of the flags stored in codebook files
+  private static final int PAD_FLAG = 0x1;
+  private static final int SYNC_FLAG = 0x2;
+  private static final int INDEXED_FLAG = 0x4;
+  private static final int RAGGED_FLAG = 0x8;
+
+  /**
+   * Unpadded, newline synced RGB images.
+   */
+  public static final Layout DEFAULT = new Layout(false, 0.2f, true, false);
+
+  // should the images created contain a uniformly colored padding?
+  private final boolean toPadImage;
+  // The padding size, in terms of the image's width
+  private final float padRatio;
+  // should each new vertical line of pixels correspond to a new line from the text?
+  private final boolean syncNewlineAndVertical;
+  // should small vocabularies be stored as palette indices instead of RGB?
+  private final boolean indexedColor;
+  // should long lines wrap onto several rows of a narrower newline synced image?
+  private final boolean ragged;
+
+  /**
+   * @param toPadImage              pad images with the default color
+   * @param padRatio                padding size relative to the unpadded image
+   * @param syncNewlineAndVertical  start a new row of pixels for every line
+   * @param indexedColor            store ranks as indices rather than colors when possible
+   */
+  public Layout(boolean toPadImage, float padRatio, boolean syncNewlineAndVertical, boolean indexedColor) {
+    this(toPadImage, padRatio, syncNewlineAndVertical, indexedColor, false);
+  }
+
+  /**
+   * @param toPadImage              pad images with the default color
+   * @param padRatio                padding size relative to the unpadded image
+   * @param syncNewlineAndVertical  start a new row of pixels for every line
+   * @param indexedColor            store ranks as indices rather than colors when possible
+   * @param ragged                  wrap long lines of newline synced images, see LineTable
+   */
+  public Layout(boolean toPadImage, float padRatio, boolean syncNewlineAndVertical,
+                boolean indexedColor, boolean ragged) {
+    this.toPadImage = toPadImage;
+    this.padRatio = padRatio;
+    this.syncNewlineAndVertical = syncNewlineAndVertical;
+    this.indexedColor = indexedColor;
+    this.ragged = ragged;
+  }
+
+  public boolean isPadded() {
+    return toPadImage;
+  }
+
+  public float getPadRatio() {
+    return padRatio;
+  }
+
+  public boolean isSyncNewlineAndVertical() {
+    return syncNewlineAndVertical;
+  }
+
+  public boolean isIndexedColor() {
+    return indexedColor;
+  }
+
+  /**
+   * Are lines wrapped? Only newline synced images are ragged.
+   */
+  public boolean isRagged() {
+    return ragged && syncNewlineAndVertical;
+  }
+
+  public Layout withPadding(boolean b) {
+    return new Layout(b, padRatio, syncNewlineAndVertical, indexedColor, ragged);
+  }
+
+  public Layout withSyncNewlineAndVertical(boolean b) {
+    return new Layout(toPadImage, padRatio, b, indexedColor, ragged);
+  }
+
+  public Layout withIndexedColor(boolean b) {
+    return new Layout(toPadImage, padRatio, syncNewlineAndVertical, b, ragged);
+  }
+
+  public Layout withRagged(boolean b) {
+    return new Layout(toPadImage, padRatio, syncNewlineAndVertical, indexedColor, b);
+  }
+
+  /**
+   * Width of the part of an image holding words, before padding. Only needs
+   * a text's counts, so it can be computed from exact or streamed stats.
+   * Ragged images are sized by their LineTable instead.
+   *
+   * @param words         word count, including newlines
+   * @param lines         line count
+   * @param longestLine   word count of the longest line
+   * @return              width in pixels
+   */
+  int textWidth(long words, int lines, int longestLine) {
+    if (syncNewlineAndVertical) {
+      return longestLine + 1;
+    }
+    return (int) Math.ceil(Math.sqrt((double) words));
+  }
+
+  /**
+   * Height of the part of an image holding words, before padding.
+   *
+   * @param words         word count, including newlines
+   * @param lines         line count
+   * @param longestLine   word count of the longest line
+   * @return              height in pixels
+   */
+  int textHeight(long words, int lines, int longestLine) {
+    if (syncNewlineAndVertical) {
+      return lines + 1;
+    }
+    return textWidth(words, lines, longestLine);
+  }
+
+  /**
+   * Padding added to each side of an image.
+   *
+   * @param textSize      width or height of the part holding words
+   * @return              padding in pixels, 0 if unpadded
+   */
+  int padding(int textSize) {
+    return toPadImage ? (int) (textSize * padRatio) : 0;
+  }
+
+  /**
+   * The boolean parameters packed into bits, for storing in files. Layouts
+   * that draw the same images have the same flags: ragged only counts for
+   * newline synced images.
+   */
+  int flags() {
+    return (toPadImage ? PAD_FLAG : 0)
+         | (syncNewlineAndVertical ? SYNC_FLAG : 0)
+         | (indexedColor ? INDEXED_FLAG : 0)
+         | (isRagged() ? RAGGED_FLAG : 0);
+  }
+
+  /**
+   * Rebuild a layout from stored flags.
+   */
+  static Layout fromFlags(int flags, float padRatio) {
+    return new Layout((flags & PAD_FLAG) != 0, padRatio,
+                      (flags & SYNC_FLAG) != 0, (flags & INDEXED_FLAG) != 0,
+                      (flags & RAGGED_FLAG) != 0);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof Layout)) {
+      return false;
+    }
+    Layout other = (Layout) o;
+    return flags() == other.flags() && padRatio == other.padRatio;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * flags() + Float.floatToIntBits(padRatio);
+  }
+}
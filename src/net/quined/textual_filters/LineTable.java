@@ -0,0 +1,290 @@
+package net.quined.textual_filters;
+
+/**
+ * Where each line of a text sits in a ragged image.
+ *
+ * Newline synced images are as wide as the longest line, so one long line
+ * makes every row wide and mostly empty. Ragged images wrap lines at a
+ * narrower width instead: a line takes as many consecutive rows as it needs,
+ * and the next line starts on a fresh row. The wrap width is the widest one
+ * that keeps the image area within a quarter of the smallest possible area,
+ * which is one pixel per word and one row per empty line.
+ *
+ * The table of line lengths is needed to tell where lines end, so it is
+ * saved as a sidecar file next to the image, with the line lengths stored
+ * as variable length integers.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+public final class LineTable {
+  // "TFLT"
+  private static final int MAGIC = 0x54464C54;
+  private static final int VERSION = 1;
+  // files are written under this suffix and renamed when complete
+  private static final String PARTIAL_SUFFIX = ".partial";
+
+  // how much bigger than the smallest possible area ragged images may get
+  private static final double MAX_AREA_OVERHEAD = 0.25;
+
+  private final int wrapWidth;
+  // words on each line, not counting newlines
+  private final int[] lineLengths;
+  // first image row of each line; the entry after the last line is the row count
+  private final int[] firstRows;
+
+  /**
+   * Lay out the lines of a corpus.
+   *
+   * @param corpus      text to lay out
+   * @since 0.1
+   */
+  public LineTable(Corpus corpus) {
+    this(lengthsOf(corpus), -1);
+  }
+
+  /**
+   * @param lineLengths   words on each line
+   * @param wrapWidth     row width, or -1 to choose one
+   */
+  private LineTable(int[] lineLengths, int wrapWidth) {
+    this.lineLengths = lineLengths;
+    if (wrapWidth < 0) {
+      int longest = 0;
+      for (int length : lineLengths) {
+        longest = Math.max(longest, length);
+      }
+      long[] histogram = new long[longest + 1];
+      for (int length : lineLengths) {
+        histogram[length]++;
+      }
+      wrapWidth = chooseWrapWidth(histogram);
+    }
+    this.wrapWidth = wrapWidth;
+    firstRows = new int[lineLengths.length + 1];
+    for (int line = 0; line < lineLengths.length; line++) {
+      firstRows[line + 1] = firstRows[line] + rowsFor(lineLengths[line], wrapWidth);
+    }
+  }
+
+  private static int[] lengthsOf(Corpus corpus) {
+    // an empty text still gets one empty row, like synced images
+    int[] lengths = new int[Math.max(1, corpus.newlineCount())];
+    for (int line = 0; line < corpus.newlineCount(); line++) {
+      lengths[line] = corpus.lineLength(line);
+    }
+    return lengths;
+  }
+
+  private static int rowsFor(int length, int width) {
+    return (length == 0) ? 1 : (length + width - 1) / width;
+  }
+
+  /**
+   * Choose the wrap width of a text from the number of lines of each length.
+   * Shared with CorpusSketch, which estimates image sizes from its line
+   * length distribution.
+   *
+   * @param histogram   histogram[l] is the number of lines with l words
+   * @return            widest width whose image area is within bounds
+   */
+  static int chooseWrapWidth(long[] histogram) {
+    int longest = histogram.length - 1;
+    if (longest <= 1) {
+      return 1;
+    }
+    // atLeast[x] is the number of lines with at least x words
+    long[] atLeast = new long[histogram.length + 1];
+    for (int length = longest; length >= 0; length--) {
+      atLeast[length] = atLeast[length + 1] + histogram[length];
+    }
+    double bound = (1 + MAX_AREA_OVERHEAD) * rowCount(histogram, atLeast, 1);
+    int best = 1;
+    // each width costs longest / width steps, so trying them all is cheap
+    for (int width = 2; width <= longest; width++) {
+      if ((double) width * rowCount(histogram, atLeast, width) <= bound) {
+        best = width;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Rows needed at a width: a line of l > 0 words needs one row for each
+   * multiple of the width below l, so summing the lines longer than k times
+   * the width over all k counts every row.
+   */
+  private static long rowCount(long[] histogram, long[] atLeast, int width) {
+    long rows = histogram[0];
+    for (int k = 0; (long) k * width + 1 < atLeast.length; k++) {
+      rows += atLeast[k * width + 1];
+    }
+    return rows;
+  }
+
+  /**
+   * Rows a text with the given line length histogram takes when wrapped.
+   *
+   * @param histogram   histogram[l] is the number of lines with l words
+   * @param width       wrap width
+   * @return            number of image rows
+   */
+  static long rowCount(long[] histogram, int width) {
+    long[] atLeast = new long[histogram.length + 1];
+    for (int length = histogram.length - 1; length >= 0; length--) {
+      atLeast[length] = atLeast[length + 1] + histogram[length];
+    }
+    return rowCount(histogram, atLeast, width);
+  }
+
+  /**
+   * Read a line table written by save.
+   *
+   * @param filename    line table file
+   * @return            the stored table
+   * @throws IOException  if the file can't be read or isn't a line table
+   * @since 0.1
+   */
+  public static LineTable open(String filename) throws IOException {
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(filename)));
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("not a line table file");
+      }
+      if (in.readInt() != VERSION) {
+        throw new IOException("unsupported line table version");
+      }
+      int wrapWidth = in.readInt();
+      int[] lengths = new int[in.readInt()];
+      for (int line = 0; line < lengths.length; line++) {
+        lengths[line] = readVarint(in);
+      }
+      if (wrapWidth < 1) {
+        throw new IOException("bad wrap width " + wrapWidth);
+      }
+      return new LineTable(lengths, wrapWidth);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Write the table to a file, replacing it in one step.
+   *
+   * @param filename    line table file to write
+   * @throws IOException  if the file can't be written
+   * @since 0.1
+   */
+  public void save(String filename) throws IOException {
+    File target = new File(filename);
+    File partial = new File(filename + PARTIAL_SUFFIX);
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(partial)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(wrapWidth);
+      out.writeInt(lineLengths.length);
+      for (int length : lineLengths) {
+        // seven bits at a time, low bits first, high bit set while more follow
+        while ((length & ~0x7F) != 0) {
+          out.writeByte((length & 0x7F) | 0x80);
+          length >>>= 7;
+        }
+        out.writeByte(length);
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(partial.toPath(), target.toPath(),
+               StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static int readVarint(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("bad line length");
+  }
+
+  /**
+   * Width at which lines wrap onto the next row.
+   *
+   * @return      row width in pixels, not counting padding
+   * @since 0.1
+   */
+  public int wrapWidth() {
+    return wrapWidth;
+  }
+
+  public int lineCount() {
+    return lineLengths.length;
+  }
+
+  /**
+   * Number of words on a line, not counting its newline.
+   *
+   * @param line    line number, counting from 0
+   * @return        word count of the line
+   * @since 0.1
+   */
+  public int lineLength(int line) {
+    return lineLengths[line];
+  }
+
+  /**
+   * First row of a line, not counting padding.
+   *
+   * @param line    line number, or the line count for the row count
+   * @return        row of the line's first word
+   * @since 0.1
+   */
+  public int firstRow(int line) {
+    return firstRows[line];
+  }
+
+  /**
+   * Number of rows all lines take, not counting padding.
+   *
+   * @return      image rows holding words
+   * @since 0.1
+   */
+  public int rowCount() {
+    return firstRows[lineLengths.length];
+  }
+
+  /**
+   * The line a row belongs to.
+   *
+   * @param row     row, not counting padding, below rowCount
+   * @return        line number
+   * @since 0.1
+   */
+  public int lineAtRow(int row) {
+    int index = Arrays.binarySearch(firstRows, row);
+    if (index < 0) {
+      return -index - 2;
+    }
+    // every line takes at least one row, so a match is the line itself
+    return Math.min(index, lineLengths.length - 1);
+  }
+}
@@ -0,0 +1,386 @@
+package net.quined.textual_filters;
+
+/**
+ * Generates new text from the word transitions of a Corpus.
+ *
+ * Words are numbered in order of first appearance and the bigram and trigram
+ * transitions between them are stored as compressed sparse rows: for each
+ * context an offset into parallel arrays of successor ids and cumulative
+ * successor counts. A trigram context is the index of its bigram edge, so
+ * both tables together take a few ints per distinct transition.
+ *
+ * Sampling walks the trigram table, backing off to bigrams and then single
+ * word frequencies for contexts that never occurred. It uses its own random
+ * number generator and allocates nothing, so long runs only cost the time to
+ * append words to the output.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class MarkovGenerator {
+  // context id used when no word precedes
+  private static final int NONE = -1;
+
+  // words by id and the reverse mapping
+  private final String[] vocabulary;
+  private final HashMap<String, Integer> wordIds = new HashMap<String, Integer>();
+  private final int newlineId;
+
+  /**
+   * Transition tables. Successors of context c are found at indices
+   * offsets[c] to offsets[c+1] of the targets and cumulative arrays.
+   */
+  private final long[] unigramCumulative;
+  private final int[] bigramOffsets;
+  private final int[] bigramTargets;
+  private final long[] bigramCumulative;
+  // trigram contexts are bigram edge indices
+  private final int[] trigramOffsets;
+  private final int[] trigramTargets;
+  private final long[] trigramCumulative;
+
+  // the cumulative counts sampled from; differ from the above when steered
+  private long[] activeUnigrams;
+  private long[] activeBigrams;
+  private long[] activeTrigrams;
+
+  // the two most recent words, most recent last
+  private int previous2 = NONE;
+  private int previous1 = NONE;
+  // xorshift64* state
+  private long randomState = 0x9E3779B97F4A7C15L;
+
+  /**
+   * Learn the word transitions of a corpus.
+   *
+   * @param corpus      text to learn from; must contain at least one word
+   * @since 0.1
+   */
+  public MarkovGenerator(Corpus corpus) {
+    int length = corpus.length();
+    int[] tokens = new int[length];
+    String[] words = new String[corpus.uniqueWordCount()];
+    for (int i = 0; i < length; i++) {
+      String word = corpus.getWord(i);
+      Integer id = wordIds.get(word);
+      if (id == null) {
+        id = wordIds.size();
+        wordIds.put(word, id);
+        words[id] = word;
+      }
+      tokens[i] = id;
+    }
+    vocabulary = words;
+    Integer newline = wordIds.get(Corpus.NEWLINE);
+    newlineId = (newline == null) ? NONE : newline;
+
+    int[] counts = new int[vocabulary.length];
+    for (int token : tokens) {
+      counts[token]++;
+    }
+    unigramCumulative = new long[vocabulary.length];
+    long total = 0;
+    for (int i = 0; i < counts.length; i++) {
+      total += counts[i];
+      unigramCumulative[i] = total;
+    }
+
+    // bigrams: sort (from, to) pairs packed into longs and count runs
+    long[] pairs = new long[Math.max(0, length - 1)];
+    for (int i = 0; i + 1 < length; i++) {
+      pairs[i] = pack(tokens[i], tokens[i + 1]);
+    }
+    Arrays.sort(pairs);
+    int edges = countRuns(pairs);
+    bigramOffsets = new int[vocabulary.length + 1];
+    bigramTargets = new int[edges];
+    bigramCumulative = new long[edges];
+    fillRows(pairs, bigramOffsets, bigramTargets, bigramCumulative);
+
+    // trigrams: contexts are the bigram edges of their first two words
+    long[] triples = new long[Math.max(0, length - 2)];
+    for (int i = 0; i + 2 < length; i++) {
+      triples[i] = pack(edgeIndex(tokens[i], tokens[i + 1]), tokens[i + 2]);
+    }
+    Arrays.sort(triples);
+    int trigramEdges = countRuns(triples);
+    trigramOffsets = new int[edges + 1];
+    trigramTargets = new int[trigramEdges];
+    trigramCumulative = new long[trigramEdges];
+    fillRows(triples, trigramOffsets, trigramTargets, trigramCumulative);
+
+    activeUnigrams = unigramCumulative;
+    activeBigrams = bigramCumulative;
+    activeTrigrams = trigramCumulative;
+  }
+
+  private static long pack(int high, int low) {
+    return ((long) high << 32) | (low & 0xFFFFFFFFL);
+  }
+
+  private static int countRuns(long[] sorted) {
+    int runs = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        runs++;
+      }
+    }
+    return runs;
+  }
+
+  /**
+   * Turn sorted (context, successor) pairs into compressed rows.
+   *
+   * @param sorted        packed pairs, sorted, with repeats
+   * @param offsets       receives the start of each context's row
+   * @param targets       receives the distinct successors
+   * @param cumulative    receives running successor counts within each row
+   */
+  private static void fillRows(long[] sorted, int[] offsets, int[] targets, long[] cumulative) {
+    int edge = -1;
+    int context = -1;
+    long running = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      int from = (int) (sorted[i] >>> 32);
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        edge++;
+        targets[edge] = (int) sorted[i];
+        if (from != context) {
+          // rows of contexts without successors are empty
+          for (int c = context + 1; c <= from; c++) {
+            offsets[c] = edge;
+          }
+          context = from;
+          running = 0;
+        }
+      }
+      running++;
+      cumulative[edge] = running;
+    }
+    for (int c = context + 1; c < offsets.length; c++) {
+      offsets[c] = edge + 1;
+    }
+  }
+
+  /**
+   * Find the bigram edge from one word to another.
+   *
+   * @return      index into the bigram arrays, or NONE if never observed
+   */
+  private int edgeIndex(int from, int to) {
+    int index = Arrays.binarySearch(bigramTargets, bigramOffsets[from], bigramOffsets[from + 1], to);
+    return (index >= 0) ? index : NONE;
+  }
+
+  /**
+   * Seed the random number generator, making the output reproducible.
+   *
+   * @param seed    any value
+   * @since 0.1
+   */
+  public void setSeed(long seed) {
+    // avoid the all zero state, which xorshift never leaves
+    randomState = (seed == 0) ? 0x9E3779B97F4A7C15L : seed;
+  }
+
+  /**
+   * Continue from the end of a text, for example one decoded from a filtered
+   * image. The last two words the generator knows become the context.
+   *
+   * @param seedText    text whose ending the output continues
+   * @since 0.1
+   */
+  public void continueFrom(Corpus seedText) {
+    previous2 = NONE;
+    previous1 = NONE;
+    int found = 0;
+    for (int i = seedText.length() - 1; i >= 0 && found < 2; i--) {
+      Integer id = wordIds.get(seedText.getWord(i));
+      if (id != null) {
+        if (found == 0) {
+          previous1 = id;
+        } else {
+          previous2 = id;
+        }
+        found++;
+      }
+    }
+  }
+
+  /**
+   * Bias sampling towards words that occur in a text, for example one decoded
+   * from a filtered image. Every transition to such a word counts boost times.
+   *
+   * @param steerText   text whose words are preferred
+   * @param boost       weight of preferred words; 1 removes any steering
+   * @since 0.1
+   */
+  public void steer(Corpus steerText, int boost) {
+    if (boost <= 1) {
+      activeUnigrams = unigramCumulative;
+      activeBigrams = bigramCumulative;
+      activeTrigrams = trigramCumulative;
+      return;
+    }
+    boolean[] preferred = new boolean[vocabulary.length];
+    for (String word : steerText.wordFrequency().keySet()) {
+      Integer id = wordIds.get(word);
+      if (id != null) {
+        preferred[id] = true;
+      }
+    }
+    int[] unigramOffsets = {0, vocabulary.length};
+    int[] everyWord = new int[vocabulary.length];
+    for (int i = 0; i < everyWord.length; i++) {
+      everyWord[i] = i;
+    }
+    activeUnigrams = weigh(unigramOffsets, everyWord, unigramCumulative, preferred, boost);
+    activeBigrams = weigh(bigramOffsets, bigramTargets, bigramCumulative, preferred, boost);
+    activeTrigrams = weigh(trigramOffsets, trigramTargets, trigramCumulative, preferred, boost);
+  }
+
+  private static long[] weigh(int[] offsets, int[] targets, long[] cumulative,
+                              boolean[] preferred, int boost) {
+    long[] weighted = new long[cumulative.length];
+    for (int row = 0; row + 1 < offsets.length; row++) {
+      long previous = 0;
+      long running = 0;
+      for (int i = offsets[row]; i < offsets[row + 1]; i++) {
+        long count = cumulative[i] - previous;
+        previous = cumulative[i];
+        running += preferred[targets[i]] ? count * boost : count;
+        weighted[i] = running;
+      }
+    }
+    return weighted;
+  }
+
+  /**
+   * Generate the next word id, updating the context.
+   *
+   * @return      id of the generated word, see word(int)
+   * @since 0.1
+   */
+  public int nextToken() {
+    int next = NONE;
+    if (previous2 != NONE) {
+      int context = edgeIndex(previous2, previous1);
+      if (context != NONE) {
+        next = sample(trigramOffsets[context], trigramOffsets[context + 1], trigramTargets, activeTrigrams);
+      }
+    }
+    if (next == NONE && previous1 != NONE) {
+      next = sample(bigramOffsets[previous1], bigramOffsets[previous1 + 1], bigramTargets, activeBigrams);
+    }
+    if (next == NONE) {
+      next = sample(0, vocabulary.length, null, activeUnigrams);
+    }
+    previous2 = previous1;
+    previous1 = next;
+    return next;
+  }
+
+  /**
+   * Pick a successor within a row with probability proportional to its count.
+   *
+   * @param from          start of the row
+   * @param to            end of the row
+   * @param targets       successor ids, or null if the index is the id
+   * @param cumulative    running counts of the row
+   * @return              sampled successor, or NONE for an empty row
+   */
+  private int sample(int from, int to, int[] targets, long[] cumulative) {
+    if (from >= to) {
+      return NONE;
+    }
+    long total = cumulative[to - 1];
+    long pick = nextLong(total);
+    // first entry whose running count exceeds the pick
+    int low = from;
+    int high = to - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (cumulative[mid] > pick) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return (targets == null) ? low : targets[low];
+  }
+
+  /**
+   * Uniform random number in [0, bound) from a xorshift64* generator.
+   */
+  private long nextLong(long bound) {
+    randomState ^= randomState >>> 12;
+    randomState ^= randomState << 25;
+    randomState ^= randomState >>> 27;
+    long bits = (randomState * 0x2545F4914F6CDD1DL) >>> 1;
+    return bits % bound;
+  }
+
+  /**
+   * Fill an array with generated word ids.
+   *
+   * @param out     receives the ids
+   * @param offset  first index to fill
+   * @param count   number of ids to generate
+   * @since 0.1
+   */
+  public void generate(int[] out, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      out[offset + i] = nextToken();
+    }
+  }
+
+  /**
+   * Generate one line of text and append it, followed by a newline.
+   *
+   * @param out         receives the line
+   * @param maxWords    longest line to generate before breaking it
+   * @return            number of words on the line
+   * @since 0.1
+   */
+  public int appendLine(StringBuilder out, int maxWords) {
+    int count = 0;
+    while (count < maxWords) {
+      int token = nextToken();
+      if (token == newlineId) {
+        break;
+      }
+      if (count > 0) {
+        out.append(' ');
+      }
+      out.append(vocabulary[token]);
+      count++;
+    }
+    out.append('\n');
+    return count;
+  }
+
+  /**
+   * Look up the word with a given id.
+   *
+   * @param id      word id returned by nextToken or generate
+   * @return        the word
+   * @since 0.1
+   */
+  public String word(int id) {
+    return vocabulary[id];
+  }
+
+  /**
+   * Number of distinct words that can be generated.
+   *
+   * @return      vocabulary size
+   * @since 0.1
+   */
+  public int vocabularySize() {
+    return vocabulary.length;
+  }
+}
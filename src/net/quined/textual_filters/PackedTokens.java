@@ -0,0 +1,287 @@
+package net.quined.textual_filters;
+
+/**
+ * The words of a text stored as bit-packed codebook ranks.
+ *
+ * Ranks grow with frequency, so each word is stored as its distance from the
+ * most frequent word: common words get small codes, and most of a text is
+ * made of common words. Codes are packed in blocks of 128 words, each block
+ * using just enough bits for its largest code. A block of everyday prose
+ * mostly needs 10 to 14 bits per word instead of a 32-bit String reference,
+ * and a block made only of the most frequent words needs none.
+ *
+ * Any word can be read directly: its block's bit offset and width give its
+ * position. Runs of words are decoded block by block without looking up
+ * each position, which is what the encoder uses to draw rows.
+ *
+ * Corpora can pack their words while a text is loaded: the tokenizer
+ * records each word's dictionary id in the same block format, and the ids
+ * are turned into ranks once the text's codebook is known.
+ *
+ * Packed tokens are immutable and can be shared between threads.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.util.Arrays;
+
+public final class PackedTokens {
+  static final int BLOCK_SIZE = 128;
+  private static final int BLOCK_SHIFT = 7;
+
+  // ranks are relative to this mapping
+  private final Codebook codebook;
+  private final int size;
+  // code bits of all blocks, back to back, lowest bits first
+  private final long[] bits;
+  // bit offset of each block into bits, and the bits per code in it
+  private final long[] blockStarts;
+  private final byte[] widths;
+
+  /**
+   * Pack the words of a corpus.
+   *
+   * @param corpus      text to pack
+   * @param codebook    mapping holding every word of the text
+   * @throws IllegalArgumentException  if a word is missing from the codebook
+   * @since 0.1
+   */
+  public PackedTokens(Corpus corpus, Codebook codebook) {
+    this(codebook, packRanks(corpus, codebook));
+  }
+
+  /**
+   * @param codebook    mapping the codes are ranks of
+   * @param codes       distances of the ranks from the last rank
+   */
+  private PackedTokens(Codebook codebook, Packer codes) {
+    codes.finish();
+    this.codebook = codebook;
+    this.size = codes.size;
+    this.bits = Arrays.copyOf(codes.bits, (int) ((codes.bitCount >>> 6) + 2));
+    this.blockStarts = Arrays.copyOf(codes.blockStarts, codes.blocks);
+    this.widths = Arrays.copyOf(codes.widths, codes.blocks);
+  }
+
+  private static Packer packRanks(Corpus corpus, Codebook codebook) {
+    Packer codes = new Packer();
+    int lastRank = codebook.size() - 1;
+    for (int i = 0; i < corpus.length(); i++) {
+      int rank = codebook.rank(corpus.getWord(i));
+      if (rank < 0) {
+        throw new IllegalArgumentException("word missing from codebook: " + corpus.getWord(i));
+      }
+      codes.add(lastRank - rank);
+    }
+    return codes;
+  }
+
+  /**
+   * Pack words that were recorded as word ids while a text was tokenized,
+   * so the text never needs a reference per word.
+   *
+   * @param ids         word ids in text order
+   * @param words       the word of each id
+   * @param codebook    mapping holding every word
+   */
+  static PackedTokens ofIds(Packer ids, String[] words, Codebook codebook) {
+    int lastRank = codebook.size() - 1;
+    int[] codeOfId = new int[words.length];
+    for (int id = 0; id < words.length; id++) {
+      codeOfId[id] = lastRank - codebook.rank(words[id]);
+    }
+    ids.finish();
+    Packer codes = new Packer();
+    int[] block = new int[BLOCK_SIZE];
+    for (int b = 0; b < ids.blocks; b++) {
+      int count = ids.block(b, block);
+      for (int i = 0; i < count; i++) {
+        codes.add(codeOfId[block[i]]);
+      }
+    }
+    return new PackedTokens(codebook, codes);
+  }
+
+  /**
+   * Packs non-negative codes a block at a time, as they are produced.
+   */
+  static final class Packer {
+    private long[] bits = new long[16];
+    private long[] blockStarts = new long[16];
+    private byte[] widths = new byte[16];
+    private final int[] pending = new int[BLOCK_SIZE];
+    private int size;
+    private int blocks;
+    private long bitCount;
+
+    void add(int code) {
+      pending[size & (BLOCK_SIZE - 1)] = code;
+      size++;
+      if ((size & (BLOCK_SIZE - 1)) == 0) {
+        flush(BLOCK_SIZE);
+      }
+    }
+
+    /**
+     * Pack the last, partly filled block.
+     */
+    void finish() {
+      int count = size - (blocks << BLOCK_SHIFT);
+      if (count > 0) {
+        flush(count);
+      }
+    }
+
+    private void flush(int count) {
+      int all = 0;
+      for (int i = 0; i < count; i++) {
+        all |= pending[i];
+      }
+      int width = 32 - Integer.numberOfLeadingZeros(all);
+      if (blocks == widths.length) {
+        blockStarts = Arrays.copyOf(blockStarts, 2 * blocks);
+        widths = Arrays.copyOf(widths, 2 * blocks);
+      }
+      blockStarts[blocks] = bitCount;
+      widths[blocks] = (byte) width;
+      blocks++;
+      // one spare long, so codes can always be read as two longs
+      long needed = ((bitCount + (long) count * width) >>> 6) + 2;
+      if (needed > bits.length) {
+        bits = Arrays.copyOf(bits, (int) Math.max(needed, Math.min(Integer.MAX_VALUE - 8L,
+                                                                   2L * bits.length)));
+      }
+      for (int i = 0; i < count; i++) {
+        write(bits, bitCount, width, pending[i]);
+        bitCount += width;
+      }
+    }
+
+    /**
+     * Unpack one finished block.
+     *
+     * @return      number of codes in the block
+     */
+    private int block(int block, int[] dest) {
+      int count = Math.min(BLOCK_SIZE, size - (block << BLOCK_SHIFT));
+      long position = blockStarts[block];
+      for (int i = 0; i < count; i++, position += widths[block]) {
+        dest[i] = read(bits, position, widths[block]);
+      }
+      return count;
+    }
+  }
+
+  private static void write(long[] bits, long position, int width, int code) {
+    if (width == 0) {
+      return;
+    }
+    int word = (int) (position >>> 6);
+    int shift = (int) (position & 63);
+    bits[word] |= ((long) code) << shift;
+    if (shift + width > 64) {
+      bits[word + 1] |= ((long) code) >>> (64 - shift);
+    }
+  }
+
+  private static int read(long[] bits, long position, int width) {
+    if (width == 0) {
+      return 0;
+    }
+    int word = (int) (position >>> 6);
+    int shift = (int) (position & 63);
+    long value = bits[word] >>> shift;
+    if (shift + width > 64) {
+      value |= bits[word + 1] << (64 - shift);
+    }
+    return (int) (value & ((1L << width) - 1));
+  }
+
+  /**
+   * The mapping the ranks refer to.
+   *
+   * @return      codebook the tokens were packed with
+   * @since 0.1
+   */
+  public Codebook getCodebook() {
+    return codebook;
+  }
+
+  /**
+   * Number of packed words.
+   *
+   * @return      word count, including newlines
+   * @since 0.1
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Rank of one word.
+   *
+   * @param index   index of the word in the text
+   * @return        the word's rank in the codebook
+   * @since 0.1
+   */
+  public int rank(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("word " + index + " of " + size);
+    }
+    int block = index >>> BLOCK_SHIFT;
+    int width = widths[block];
+    int code = read(bits, blockStarts[block] + (long) (index & (BLOCK_SIZE - 1)) * width, width);
+    return codebook.size() - 1 - code;
+  }
+
+  /**
+   * Ranks of a run of consecutive words.
+   *
+   * @param from    index of the first word
+   * @param dest    receives the ranks
+   * @param offset  position in dest of the first rank
+   * @param count   number of words to decode
+   * @since 0.1
+   */
+  public void ranks(int from, int[] dest, int offset, int count) {
+    if (from < 0 || count < 0 || from > size - count) {
+      throw new IndexOutOfBoundsException("words " + from + " to " + (from + count) + " of " + size);
+    }
+    int lastRank = codebook.size() - 1;
+    int end = from + count;
+    int index = from;
+    while (index < end) {
+      int block = index >>> BLOCK_SHIFT;
+      int width = widths[block];
+      int blockEnd = Math.min(end, (block + 1) << BLOCK_SHIFT);
+      if (width == 0) {
+        Arrays.fill(dest, offset, offset + blockEnd - index, lastRank);
+        offset += blockEnd - index;
+        index = blockEnd;
+        continue;
+      }
+      long mask = (1L << width) - 1;
+      long position = blockStarts[block] + (long) (index & (BLOCK_SIZE - 1)) * width;
+      for (; index < blockEnd; index++, position += width) {
+        int word = (int) (position >>> 6);
+        int shift = (int) (position & 63);
+        long value = bits[word] >>> shift;
+        if (shift + width > 64) {
+          value |= bits[word + 1] << (64 - shift);
+        }
+        dest[offset++] = lastRank - (int) (value & mask);
+      }
+    }
+  }
+
+  /**
+   * Memory taken by the packed codes and block table.
+   *
+   * @return      approximate size in bytes
+   * @since 0.1
+   */
+  public long estimatedBytes() {
+    return 8L * bits.length + 9L * widths.length;
+  }
+}
@@ -0,0 +1,165 @@
+package net.quined.textual_filters;
+
+/**
+ * The per-pixel arithmetic of encoding and decoding images, applied to whole
+ * rows at a time.
+ *
+ * There are two implementations. ScalarKernels works on every JVM. When the
+ * classes of src-vector were built and the JVM runs with
+ * --add-modules jdk.incubator.vector, VectorKernels handles a full SIMD
+ * register of pixels per step instead. It is only used if it gives the same
+ * results as the scalar kernels on a self-check run when it is loaded.
+ * Setting the system property textual_filters.kernels to "scalar" turns it
+ * off.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+interface RasterKernels {
+
+  /**
+   * Convert pixel colors into word ranks in place. Default colored pixels
+   * become the coding's empty rank; any other color is masked and clamped
+   * into the vocabulary like Codebook.colorToRank does.
+   *
+   * @param row       ARGB colors, replaced by ranks
+   * @param count     number of pixels to convert
+   * @param coding    how ranks are stored in colors
+   */
+  void colorsToRanks(int[] row, int count, Coding coding);
+
+  /**
+   * Convert word ranks into pixel colors in place, like Codebook.rankToColor
+   * does. The empty rank becomes the default color.
+   *
+   * @param row       ranks, replaced by ARGB colors
+   * @param count     number of pixels to convert
+   * @param coding    how ranks are stored in colors
+   */
+  void ranksToColors(int[] row, int count, Coding coding);
+
+  /**
+   * Clamp ranks read from 16-bit gray images into the vocabulary. The gray
+   * level of empty pixels becomes the empty rank.
+   *
+   * @param row       gray levels, replaced by ranks
+   * @param count     number of pixels to convert
+   * @param empty     gray level of empty pixels
+   * @param coding    vocabulary size and empty rank
+   */
+  void clampRanks(int[] row, int count, int empty, Coding coding);
+
+  /**
+   * The parameters of a codebook's color coding, plus the values standing
+   * for pixels without a word on either side.
+   */
+  final class Coding {
+    final boolean gradient;
+    final int colorGradient;
+    final int indexMask;
+    final int lastRank;
+    final int emptyColor;
+    final int noWord;
+
+    Coding(boolean gradient, int colorGradient, int indexMask, int lastRank,
+           int emptyColor, int noWord) {
+      this.gradient = gradient;
+      this.colorGradient = colorGradient;
+      this.indexMask = indexMask;
+      this.lastRank = lastRank;
+      this.emptyColor = emptyColor;
+      this.noWord = noWord;
+    }
+  }
+
+  /**
+   * The kernels to use, chosen once.
+   *
+   * @return      vector kernels if they are available and correct, else scalar ones
+   */
+  static RasterKernels get() {
+    return Loaded.KERNELS;
+  }
+
+  /**
+   * Holds the chosen kernels, so they are loaded and checked on first use.
+   */
+  final class Loaded {
+    private static final String VECTOR_CLASS = "net.quined.textual_filters.VectorKernels";
+    private static final int CHECKED_PIXELS = 4096;
+
+    static final RasterKernels KERNELS = load();
+
+    private static RasterKernels load() {
+      RasterKernels scalar = new ScalarKernels();
+      if ("scalar".equals(System.getProperty("textual_filters.kernels"))) {
+        return scalar;
+      }
+      try {
+        RasterKernels vector = (RasterKernels) Class.forName(VECTOR_CLASS)
+            .getDeclaredConstructor().newInstance();
+        if (agree(vector, scalar)) {
+          return vector;
+        }
+        // disagreeing kernels are dropped quietly; tests check get() instead
+      } catch (ReflectiveOperationException | LinkageError e) {
+        // not built, or the JVM runs without jdk.incubator.vector
+      }
+      return scalar;
+    }
+
+    /**
+     * Run both kernels over random and edge case pixels for a range of
+     * vocabulary sizes and compare the results.
+     */
+    static boolean agree(RasterKernels candidate, RasterKernels reference) {
+      SplittableRandom random = new SplittableRandom(42);
+      int[] sizes = {1, 2, 3, 7, 100, 255, 256, 300, 65534, 70000, 0xFFFFFF, 0x1000005};
+      int[] edges = {0, -1, 0xFF000000, 0x00FFFFFF, 0xFFFFFFFE, 0x80000000, 0x7FFFFFFF, 0xFF0000FF};
+      for (int size : sizes) {
+        Coding coding = new Coding(size <= 255, Codebook.colorGradientFor(size),
+                                   Codebook.maskFor(size), size - 1, -1, -1);
+        int[] colors = new int[CHECKED_PIXELS];
+        int[] ranks = new int[CHECKED_PIXELS];
+        int[] grays = new int[CHECKED_PIXELS];
+        for (int i = 0; i < CHECKED_PIXELS; i++) {
+          colors[i] = (i < edges.length) ? edges[i] : random.nextInt();
+          ranks[i] = (i % 17 == 0) ? coding.noWord : random.nextInt(size);
+          grays[i] = random.nextInt(0x10000);
+        }
+        // odd counts leave a tail for the scalar loop of vector kernels
+        for (int count : new int[] {CHECKED_PIXELS, CHECKED_PIXELS - 3}) {
+          if (!sameResult(candidate, reference, 0, colors, count, coding)
+              || !sameResult(candidate, reference, 1, ranks, count, coding)
+              || !sameResult(candidate, reference, 2, grays, count, coding)) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    private static boolean sameResult(RasterKernels candidate, RasterKernels reference,
+                                      int kernel, int[] input, int count, Coding coding) {
+      int[] expected = input.clone();
+      int[] actual = input.clone();
+      run(reference, kernel, expected, count, coding);
+      run(candidate, kernel, actual, count, coding);
+      return Arrays.equals(expected, actual);
+    }
+
+    private static void run(RasterKernels kernels, int kernel, int[] row, int count, Coding coding) {
+      if (kernel == 0) {
+        kernels.colorsToRanks(row, count, coding);
+      } else if (kernel == 1) {
+        kernels.ranksToColors(row, count, coding);
+      } else {
+        kernels.clampRanks(row, count, 0xFFFF, coding);
+      }
+    }
+  }
+}
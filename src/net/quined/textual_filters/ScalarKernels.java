@@ -0,0 +1,70 @@
+package net.quined.textual_filters;
+
+/**
+ * Row kernels that convert one pixel at a time. They do the same as
+ * Codebook.colorToRank and Codebook.rankToColor, and are the reference the
+ * vector kernels are checked against.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+final class ScalarKernels implements RasterKernels {
+
+  @Override
+  public void colorsToRanks(int[] row, int count, Coding coding) {
+    colorsToRanks(row, 0, count, coding);
+  }
+
+  @Override
+  public void ranksToColors(int[] row, int count, Coding coding) {
+    ranksToColors(row, 0, count, coding);
+  }
+
+  @Override
+  public void clampRanks(int[] row, int count, int empty, Coding coding) {
+    clampRanks(row, 0, count, empty, coding);
+  }
+
+  /**
+   * Range versions, which vector kernels use for the pixels left over after
+   * their last full register.
+   */
+  static void colorsToRanks(int[] row, int from, int to, Coding coding) {
+    for (int x = from; x < to; x++) {
+      int argb = row[x];
+      if (argb == coding.emptyColor) {
+        row[x] = coding.noWord;
+        continue;
+      }
+      int index;
+      if (coding.gradient) {
+        index = coding.indexMask & ((argb & 0xFF) / coding.colorGradient);
+      } else {
+        int code = argb ^ Codebook.ALPHA_FLIP;
+        index = coding.indexMask & ((code >>> 24) == 0 ? code : code - 1);
+      }
+      row[x] = Math.min(index, coding.lastRank);
+    }
+  }
+
+  static void ranksToColors(int[] row, int from, int to, Coding coding) {
+    for (int x = from; x < to; x++) {
+      int rank = row[x];
+      if (rank == coding.noWord) {
+        row[x] = coding.emptyColor;
+      } else if (coding.gradient) {
+        row[x] = Codebook.ALPHA_FLIP | (rank * coding.colorGradient);
+      } else {
+        int code = (rank < Codebook.MAX_RGB_CODE) ? rank : rank + 1;
+        row[x] = code ^ Codebook.ALPHA_FLIP;
+      }
+    }
+  }
+
+  static void clampRanks(int[] row, int from, int to, int empty, Coding coding) {
+    for (int x = from; x < to; x++) {
+      row[x] = (row[x] == empty) ? coding.noWord : Math.min(row[x], coding.lastRank);
+    }
+  }
+}
@@ -7,158 +7,382 @@ package net.quined.textual_filters;
  * This mapping can be used to create images from text or
  * interpret images as text.
  *
+ * TextAsImage objects are immutable. Changing the layout or the text yields a
+ * new object sharing the same Codebook, so one mapping can serve any number
+ * of threads encoding and decoding images at once.
+ *
  * @author Phillip Mates
  * @version 0.1
  */
 
 import java.io.IOException;
 import java.io.File;
-import java.util.HashMap;
 import java.awt.image.*;
 
 // for writing images
 import javax.imageio.*;
+import javax.imageio.stream.ImageInputStream;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 
-import java.util.Set;
-import java.util.List;
 import java.util.ArrayList;
-
-// WordFreqEntryComparator
-import java.util.Comparator;
-import java.util.Map;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Iterator;
 
 public class TextAsImage {
   /**
    * Constants
    */
-  private final int DEFAULT_COLOR = new Color(255, 255, 255).getRGB();
-
-  // maps words found in a text to a color value
-  private HashMap<String, Integer> wordToColor = new HashMap<String, Integer>();
-  // corpus of text that includes stats like lenght & word frequency.
-  private Corpus corpus;
-
+  private static final int DEFAULT_COLOR = new Color(255, 255, 255).getRGB();
+  // rank placeholder for pixels that don't hold a word
+  private static final int NO_WORD = -1;
+  // palette entry and gray level used for the default color in indexed images
+  private static final int INDEXED_DEFAULT = 0xFF;
+  private static final int GRAY_DEFAULT = 0xFFFF;
 
   /**
-  * Image Creation Parameters
-  */
-  // should the images created contain a uniformly colored padding?
-  private boolean toPadImage = false;
-  // The padding size, in terms of the image's width
-  private float padRatio = 0.2f;
-  // should each new vertical line of pixels correspond to a new line from the text?
-  private boolean syncNewlineAndVertical = true;
+   * How word ranks are stored in pixel colors
+   */
+  public enum Encoding {
+    // at most 255 words, spread evenly over the blue channel
+    GRADIENT,
+    // one 24-bit RGB color per word
+    RGB,
+    // more words than 24 bits can hold; the alpha byte carries the high bits
+    ARGB
+  }
 
+  // maps words found in a text to colors and back
+  private final Codebook codebook;
+  // the codebook's parameters for the row kernels
+  private final RasterKernels.Coding coding;
+  // corpus of text that includes stats like lenght & word frequency.
+  // null for objects that only decode images
+  private final Corpus corpus;
+
+  // Image Creation Parameters
+  private final Layout layout;
+  // where lines sit in ragged images, else null
+  private final LineTable lineTable;
 
   /**
    * Image properties derived from text stats
    */
-  // if we have less than 256 words, we need to map color ranges to unique words
-  int colorGradient;
-  // mask to eliminate parts of colors that don't have word mappings
-  int indexMask;
   // size of the image: unpaddedImageSize + (2 * imagePadding)
-  int imageWidth;
-  int imageHeight;
-  private int verticalPadding;
-  private int horizontalPadding;
+  private final int imageWidth;
+  private final int imageHeight;
+  private final int verticalPadding;
+  private final int horizontalPadding;
 
   /**
-   * Sole constructor; loads corpus of text and builds word to color mapping
+   * Constructor; loads corpus of text and builds word to color mapping
    * @param corpus      Corpus object containing text and statistical information
    *                    needed to create a mapping from words to colors
    */
   public TextAsImage(Corpus corpus) {
-    this.corpus = corpus;
+    // corpora packed while loading come with their codebook
+    this((corpus.getPackedTokens() != null) ? corpus.getPackedTokens().getCodebook()
+                                            : new Codebook(corpus),
+         corpus, Layout.DEFAULT);
+  }
 
-    // number of unique words in the corpus
-    int uniqueWordCount = this.corpus.uniqueWordCount();
+  /**
+   * Constructor for an existing mapping. Without a corpus, the object can
+   * only interpret images as text.
+   *
+   * @param codebook    word to color mapping, e.g. opened from a codebook file
+   * @param corpus      text to draw with that mapping, or null
+   * @param layout      image creation parameters
+   */
+  public TextAsImage(Codebook codebook, Corpus corpus, Layout layout) {
+    this(codebook, corpus, layout,
+         (corpus != null && layout.isRagged()) ? new LineTable(corpus) : null);
+  }
 
-    // compute the index mask, so that we don't try to interpret colors as
-    // indices if they lie out of the word range
-    int shiftedWordCount = uniqueWordCount;
-    while (shiftedWordCount > 0) {
-      indexMask = (indexMask << 1) | 0x1;
-      shiftedWordCount = shiftedWordCount >> 1;
+  /**
+   * @param lineTable   line positions for ragged layouts, or null
+   */
+  private TextAsImage(Codebook codebook, Corpus corpus, Layout layout, LineTable lineTable) {
+    this.codebook = codebook;
+    this.coding = codebook.coding(DEFAULT_COLOR, NO_WORD);
+    this.corpus = corpus;
+    this.layout = layout;
+    this.lineTable = layout.isRagged() ? lineTable : null;
+
+    // Determine the size of an image based on flags and text size.
+    int width = 0;
+    int height = 0;
+    if (this.lineTable != null) {
+      width = this.lineTable.wrapWidth();
+      height = this.lineTable.rowCount();
+    } else if (corpus != null) {
+      width = layout.textWidth(corpus.length(), corpus.newlineCount(), corpus.maxLineLength());
+      height = layout.textHeight(corpus.length(), corpus.newlineCount(), corpus.maxLineLength());
     }
+    verticalPadding = layout.padding(height);
+    horizontalPadding = layout.padding(width);
+    imageWidth = width + (2 * horizontalPadding);
+    imageHeight = height + (2 * verticalPadding);
+  }
 
-    calculateImageDimensions();
+  /**
+   * Build an object that interprets images from a codebook file alone,
+   * using the layout saved in it.
+   *
+   * @param filename    codebook file written by saveCodebook
+   * @return            object that can interpret images as text
+   * @throws IOException  if the file can't be read or isn't a codebook
+   * @since 0.1
+   */
+  public static TextAsImage openCodebook(String filename) throws IOException {
+    Codebook codebook = Codebook.open(filename);
+    return new TextAsImage(codebook, null, codebook.getSavedLayout());
+  }
 
-    if (uniqueWordCount > 255) {
-      // When dealing with more than 255 unique words,
-      // each color value will be assigned a unique word.
-      // Hence, we don't need to map ranges of color values to a given word.
-      colorGradient = 1;
-    } else {
-      colorGradient = 256 / uniqueWordCount;
-    }
+  /**
+   * Save the word to color mapping and image parameters, so that images can
+   * be interpreted later without the original text.
+   *
+   * @param filename    codebook file to write
+   * @throws IOException  if the file can't be written
+   * @since 0.1
+   */
+  public void saveCodebook(String filename) throws IOException {
+    codebook.save(filename, layout);
+  }
+
+  /**
+   * Copy that knows where the lines of a ragged image sit, so that it can
+   * decode the image without the original text.
+   *
+   * @param table     line table saved with the image
+   * @return          decoder using the table
+   * @since 0.1
+   */
+  public TextAsImage withLineTable(LineTable table) {
+    return new TextAsImage(codebook, corpus, layout, table);
+  }
+
+  /**
+   * Line positions of ragged images.
+   *
+   * @return      the line table, or null if the layout isn't ragged or the
+   *              table is unknown
+   * @since 0.1
+   */
+  public LineTable getLineTable() {
+    return lineTable;
+  }
+
+  /**
+   * The word to color mapping used by this object.
+   *
+   * @return      the codebook
+   * @since 0.1
+   */
+  public Codebook getCodebook() {
+    return codebook;
+  }
+
+  /**
+   * Image width for the current text and parameters.
+   *
+   * @return      width in pixels of images built by createImage
+   * @since 0.1
+   */
+  public int getImageWidth() {
+    return imageWidth;
+  }
+
+  /**
+   * Image height for the current text and parameters.
+   *
+   * @return      height in pixels of images built by createImage
+   * @since 0.1
+   */
+  public int getImageHeight() {
+    return imageHeight;
+  }
 
-    System.out.format("Colorgradient: %d%n", colorGradient);
-
-    // build the map from words to pixel colors
-    List<Map.Entry<String, Integer>> histoKVList = getMapping();
-
-    // map each word to a distinct color
-    if (colorGradient == 1) {
-      // words won't fit in one hue (blue)
-      for (int i = 0; i < uniqueWordCount; i++) {
-        // XXX: creating a new color out of bit shifting and then converting it
-        // to rgb might be a round about, that is, "i" might be that exact value...
-        wordToColor.put(histoKVList.get(i).getKey(),
-            new Color((i >> 16) & 0xFF,
-              (i >> 8) & 0xFF,
-              i & 0xFF).getRGB());
+  /**
+   * Row of the image holding the first word of a line, for images whose rows
+   * are synced with newlines. Lines of ragged images may take several rows.
+   *
+   * @param line    line number in the corpus
+   * @return        image row of the line
+   * @since 0.1
+   */
+  public int rowOfLine(int line) {
+    return verticalPadding + ((lineTable != null) ? lineTable.firstRow(line) : line);
+  }
+
+  /**
+   * Row of the image holding a word, for images that aren't synced with
+   * newlines.
+   *
+   * @param wordIndex     index of the word in the corpus
+   * @return              image row of the word
+   * @since 0.1
+   */
+  public int rowOfWord(int wordIndex) {
+    return verticalPadding + wordIndex / (imageWidth - (2 * horizontalPadding));
+  }
+
+  /**
+   * How ranks are stored in the colors of images created by this object.
+   *
+   * @return              the color encoding chosen for the corpus' vocabulary
+   * @since 0.1
+   */
+  public Encoding getEncoding() {
+    return codebook.getEncoding();
+  }
+
+  /**
+   * The image file format that can store the created images without loss.
+   * BMP can't hold an alpha channel, so wide encodings are written as PNG.
+   *
+   * @return              informal format name understood by ImageIO
+   * @since 0.1
+   */
+  public String imageFormat() {
+    return (codebook.getEncoding() == Encoding.ARGB || usesGrayRaster()) ? "png" : "bmp";
+  }
+
+  /**
+   * Are images stored as 8-bit palette indices?
+   */
+  private boolean usesIndexedRaster() {
+    return layout.isIndexedColor() && codebook.getEncoding() == Encoding.GRADIENT;
+  }
+
+  /**
+   * Are images stored as 16-bit ranks in a single gray band?
+   */
+  private boolean usesGrayRaster() {
+    return layout.isIndexedColor() && codebook.getEncoding() == Encoding.RGB
+        && codebook.size() < GRAY_DEFAULT;
+  }
+
+  /**
+   * Allocate an image whose pixel storage matches the encoding: one byte per
+   * pixel with a palette holding the gradient colors for small vocabularies,
+   * two bytes per pixel holding the rank itself for medium ones, and packed
+   * RGB or ARGB ints otherwise.
+   *
+   * @param width     image width in pixels
+   * @param height    image height in pixels
+   * @return          blank image of the right type
+   */
+  private BufferedImage newImage(int width, int height) {
+    if (usesIndexedRaster()) {
+      byte[] red = new byte[INDEXED_DEFAULT + 1];
+      byte[] green = new byte[INDEXED_DEFAULT + 1];
+      byte[] blue = new byte[INDEXED_DEFAULT + 1];
+      for (int i = 0; i < codebook.size(); i++) {
+        blue[i] = (byte) codebook.rankToColor(i);
       }
+      red[INDEXED_DEFAULT] = (byte) DEFAULT_COLOR;
+      green[INDEXED_DEFAULT] = (byte) DEFAULT_COLOR;
+      blue[INDEXED_DEFAULT] = (byte) DEFAULT_COLOR;
+      IndexColorModel palette = new IndexColorModel(8, INDEXED_DEFAULT + 1, red, green, blue);
+      return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, palette);
+    } else if (usesGrayRaster()) {
+      return new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
+    } else if (codebook.getEncoding() == Encoding.ARGB) {
+      return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
     } else {
-      // words fit in one hue (blue), must use the cologradient to map color ranges
-      // to a specific word
-      for (int i = 0; i < uniqueWordCount; i++) {
-        wordToColor.put(histoKVList.get(i).getKey(),
-            new Color(0, 0, i * colorGradient).getRGB());
-      }
+      return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
     }
-
   }
 
   /**
-   * Convert a color into a word from the internal Corpus text.
+   * Store a row of ranks into an image, converting them to the image's pixel
+   * representation in place.
    *
-   * @param rgb     numeric RGB reperesentation of a color
-   * @return        a word from the corpus of text
+   * @param image     image created by newImage
+   * @param y         row to write
+   * @param row       ranks of the row's words, or NO_WORD for empty pixels
    */
-  private String colorToWord(Integer rgb) {
-    if (rgb == DEFAULT_COLOR) {
-      return "";
-    }
-    Color color = new Color(rgb);
-    int index = 0;
-    if (colorGradient == 1) {
-      index = indexMask & ((color.getRed() << 16) |
-                           (color.getGreen() << 8) |
-                           color.getBlue());
+  private void writeRow(BufferedImage image, int y, int[] row) {
+    int width = image.getWidth();
+    if (usesIndexedRaster() || usesGrayRaster()) {
+      int empty = usesIndexedRaster() ? INDEXED_DEFAULT : GRAY_DEFAULT;
+      for (int x = 0; x < width; x++) {
+        if (row[x] == NO_WORD) {
+          row[x] = empty;
+        }
+      }
+      image.getRaster().setSamples(0, y, width, 1, 0, row);
     } else {
-      index = indexMask & (color.getBlue() / colorGradient);
+      RasterKernels.get().ranksToColors(row, width, coding);
+      image.setRGB(0, y, width, 1, row, 0, width);
     }
+  }
 
-    // TODO: this shouldn't be generated every time!!!
-    List<Map.Entry<String, Integer>> histoKVList = getMapping();
+  /**
+   * Read a row of an image as word ranks. Palette images are decoded through
+   * a lookup table over their palette, single band 16-bit images hold ranks
+   * directly, and anything else is decoded from its RGB colors.
+   *
+   * @param image     image to interpret as text
+   * @param y         row to read
+   * @param row       receives the ranks, or NO_WORD for empty pixels
+   * @param lookup    palette index to rank table for palette images, else null
+   */
+  private void readRow(BufferedImage image, int y, int[] row, int[] lookup) {
+    readRow(image, 0, y, image.getWidth(), row, lookup);
+  }
 
-    if (index >= histoKVList.size()) {
-      return histoKVList.get(histoKVList.size()-1).getKey();
+  /**
+   * Read part of a row of an image as word ranks.
+   *
+   * @param image     image to interpret as text
+   * @param x0        first column to read
+   * @param y         row to read
+   * @param width     number of pixels to read
+   * @param row       receives the ranks from index 0 on
+   * @param lookup    palette index to rank table for palette images, else null
+   */
+  private void readRow(BufferedImage image, int x0, int y, int width, int[] row, int[] lookup) {
+    if (lookup != null) {
+      image.getRaster().getSamples(x0, y, width, 1, 0, row);
+      for (int x = 0; x < width; x++) {
+        row[x] = lookup[row[x]];
+      }
+    } else if (isGrayRankImage(image)) {
+      image.getRaster().getSamples(x0, y, width, 1, 0, row);
+      RasterKernels.get().clampRanks(row, width, GRAY_DEFAULT, coding);
     } else {
-      return histoKVList.get(index).getKey();
+      image.getRGB(x0, y, width, 1, row, 0, width);
+      RasterKernels.get().colorsToRanks(row, width, coding);
     }
   }
 
-  private List<Map.Entry<String, Integer>> getMapping() {
-    Set<Map.Entry<String, Integer>> histoSet = this.corpus.wordFrequency().entrySet();
-    List<Map.Entry<String, Integer>> histoKVList =
-      new ArrayList<Map.Entry<String, Integer>>(histoSet);
-    Collections.sort(histoKVList, new WordFreqEntryComparator());
-    return histoKVList;
+  private static boolean isGrayRankImage(BufferedImage image) {
+    return image.getRaster().getNumBands() == 1
+        && image.getRaster().getTransferType() == DataBuffer.TYPE_USHORT;
+  }
+
+  /**
+   * Build the table from palette index to rank for a palette image, so that
+   * decoding each pixel is a single array lookup.
+   *
+   * @param image     image to interpret as text
+   * @return          table indexed by palette entry, or null if not a palette image
+   */
+  private int[] paletteLookup(BufferedImage image) {
+    if (!(image.getColorModel() instanceof IndexColorModel)) {
+      return null;
+    }
+    IndexColorModel palette = (IndexColorModel) image.getColorModel();
+    int[] lookup = new int[1 << palette.getPixelSize()];
+    for (int i = 0; i < lookup.length; i++) {
+      int rgb = (i < palette.getMapSize()) ? palette.getRGB(i) : DEFAULT_COLOR;
+      lookup[i] = (rgb == DEFAULT_COLOR) ? NO_WORD : codebook.colorToRank(rgb);
+    }
+    return lookup;
   }
 
   /**
@@ -196,92 +420,88 @@ public class TextAsImage {
    * @since 0.1
    */
   public BufferedImage createImage() {
-    BufferedImage image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
+    if (this.corpus == null) {
+      throw new IllegalStateException("no text to draw; this object only interprets images");
+    }
+    BufferedImage image = newImage(imageWidth, imageHeight);
+    int pixelCount = encodeRows(image, 0, imageHeight);
 
-    int wordIndex = 0;
+    System.out.format("drew %d pixels and there were %d words%n", pixelCount, this.corpus.length());
+
+    return image;
+  }
+
+  /**
+   * Draw a range of rows of the image built from the Corpus text. Rows are
+   * independent of each other, so parts of an image can be redrawn after
+   * the text changed, as long as the image dimensions stay the same.
+   *
+   * @param image       image with the dimensions of this object
+   * @param fromRow     first row to draw
+   * @param toRow       row after the last row to draw
+   * @return            number of pixels that were given a word's color
+   * @since 0.1
+   */
+  int encodeRows(BufferedImage image, int fromRow, int toRow) {
+    int[] row = new int[imageWidth];
+    int innerWidth = imageWidth - (2 * horizontalPadding);
     int pixelCount = 0;
     // build image; paying attention to padding and whether newlines are synced with the vertical axis
-    if (toPadImage && syncNewlineAndVertical) {
-      for (int y = 0; y < imageHeight; y++) {
-        boolean endOfLine = false;
-        for (int x = 0; x < imageWidth; x++) {
-          if (!endOfLine &&
-              (wordIndex >= this.corpus.length() || this.corpus.getWord(wordIndex).equals("\n"))) {
-            wordIndex++;
-            endOfLine = true;
-          }
-          if (!endOfLine &&
-              x >= horizontalPadding &&
-              y >= verticalPadding) {
-              image.setRGB(x, y, wordToColor.get(this.corpus.getWord(wordIndex++)));
-              pixelCount++;
-          } else {
-            // fill in the rest of the text image square with the default color
-            image.setRGB(x, y, DEFAULT_COLOR);
+    for (int y = fromRow; y < toRow; y++) {
+      // fill in the padding and the rest of the text image square with the default color
+      Arrays.fill(row, NO_WORD);
+      if (lineTable != null) {
+        // long lines continue on the following rows; rows past a line's end stay empty
+        int tableRow = y - verticalPadding;
+        if (tableRow >= 0 && tableRow < lineTable.rowCount()) {
+          int line = lineTable.lineAtRow(tableRow);
+          int offset = (tableRow - lineTable.firstRow(line)) * lineTable.wrapWidth();
+          int length = Math.min(lineTable.wrapWidth(), lineTable.lineLength(line) - offset);
+          if (length > 0) {
+            // the empty row of an empty text has no line in the corpus
+            fillRanks(this.corpus.lineStart(line) + offset, row, horizontalPadding, length);
+            pixelCount += length;
           }
         }
-      }
-    } else if (!toPadImage && syncNewlineAndVertical) {
-      for (int y = 0; y < imageHeight; y++) {
-        boolean endOfLine = false;
-        for (int x = 0; x < imageWidth; x++) {
-          if (!endOfLine &&
-              (wordIndex >= this.corpus.length() || this.corpus.getWord(wordIndex).equals("\n"))) {
-            wordIndex++;
-            endOfLine = true;
-          }
-          if (!endOfLine) {
-            image.setRGB(x, y, wordToColor.get(this.corpus.getWord(wordIndex)));
-            wordIndex++;
-            pixelCount++;
-          } else {
-            // fill in the rest of the text image square with the default color
-            image.setRGB(x, y, DEFAULT_COLOR);
-          }
-        }
-      }
-    } else if (toPadImage && !syncNewlineAndVertical) {
-      for (int y = 0; y < imageHeight; y++) {
-        for (int x = 0; x < imageWidth; x++) {
-          if (x >= horizontalPadding &&
-              y >= verticalPadding &&
-              x < (imageWidth - horizontalPadding) &&
-              y < (imageHeight - verticalPadding)) {
-            if (wordIndex < this.corpus.length()) {
-              image.setRGB(x, y, wordToColor.get(this.corpus.getWord(wordIndex++)));
-              pixelCount++;
-            } else {
-              // fill in the rest of the text image square with the default color
-              image.setRGB(x, y, DEFAULT_COLOR);
-            }
-          } else {
-            // fill in the image padding area with the default color
-            image.setRGB(x, y, DEFAULT_COLOR);
-          }
-        }
-      }
-    } else if (!toPadImage && !syncNewlineAndVertical) {
-      for (int y = 0; y < imageHeight; y++) {
-        for (int x = 0; x < imageWidth; x++) {
-          wordIndex = x + (y * imageWidth);
-          if (wordIndex < this.corpus.length()) {
-            image.setRGB(x, y, wordToColor.get(this.corpus.getWord(wordIndex)));
-            pixelCount++;
-          } else {
-            // fill in the rest of the text image square with the default color
-            image.setRGB(x, y, DEFAULT_COLOR);
-          }
+      } else if (layout.isSyncNewlineAndVertical()) {
+        // each row holds one line of text, not including its newline
+        int line = y - verticalPadding;
+        if (line >= 0 && line < this.corpus.newlineCount()) {
+          int wordIndex = this.corpus.lineStart(line);
+          int length = this.corpus.lineLength(line);
+          fillRanks(wordIndex, row, horizontalPadding, length);
+          pixelCount += length;
         }
+      } else if (y >= verticalPadding && y < (imageHeight - verticalPadding)) {
+        int wordIndex = (y - verticalPadding) * innerWidth;
+        int length = Math.max(0, Math.min(innerWidth, this.corpus.length() - wordIndex));
+        fillRanks(wordIndex, row, horizontalPadding, length);
+        pixelCount += length;
       }
-    } else {
+      writeRow(image, y, row);
     }
+    return pixelCount;
+  }
 
-    System.out.format("drew %d pixels and there were %d words%n", pixelCount, this.corpus.length());
-
-    return image;
-    // write image
-    // File outputfile = new File("foo.jpg"); // XXX
-    // ImageIO.write(image, "bmp", outputfile);
+  /**
+   * Look up the ranks of a run of words. Corpora packed with this object's
+   * codebook already hold the ranks, so they are decoded rather than looked
+   * up word by word.
+   *
+   * @param wordIndex   index of the first word in the corpus
+   * @param row         receives the ranks
+   * @param x           position in row of the first rank
+   * @param count       number of words
+   */
+  private void fillRanks(int wordIndex, int[] row, int x, int count) {
+    PackedTokens packed = this.corpus.getPackedTokens();
+    if (packed != null && packed.getCodebook() == codebook && count > 0) {
+      packed.ranks(wordIndex, row, x, count);
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      row[x + i] = codebook.rank(this.corpus.getWord(wordIndex + i));
+    }
   }
 
   /**
@@ -296,27 +516,193 @@ public class TextAsImage {
   public Corpus openImage(String filename) throws IOException {
     File outputfile = new File(filename);
     BufferedImage loadedImage = ImageIO.read(outputfile);
+    if (loadedImage == null) {
+      throw new IOException("no image reader for " + filename);
+    }
+    return openImage(loadedImage);
+  }
+
+  /**
+   * Interpret an image that is already in memory as a piece of text. Only
+   * reads this object's state, so concurrent calls are safe.
+   *
+   * @param loadedImage   image that will be interpreted as text
+   * @return Corpus       Representation of text interpreted from the image
+   * @since 0.1
+   */
+  public Corpus openImage(BufferedImage loadedImage) {
+    if (lineTable != null) {
+      return openRaggedImage(loadedImage);
+    }
+    return decodeRegion(loadedImage, 0, 0);
+  }
 
-    StringBuffer result = new StringBuffer();
+  /**
+   * Interpret part of an image file as text. Only the pixels inside the
+   * region are kept, so the memory used is bounded by the region rather
+   * than the image. Reading time is not: the PNG and BMP readers still read
+   * and decode every row of the file down to the region's bottom edge.
+   *
+   * @param filename    Filename of image that will be interpreted as text
+   * @param region      pixels to interpret; the part outside the image is ignored
+   * @return Corpus     text of the words inside the region
+   * @throws IOException  If the file can't be read as an image
+   * @since 0.1
+   */
+  public Corpus openRegion(String filename, Rectangle region) throws IOException {
+    ImageInputStream in = ImageIO.createImageInputStream(new File(filename));
+    if (in == null) {
+      throw new IOException("can't read " + filename);
+    }
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      if (!readers.hasNext()) {
+        throw new IOException("no image reader for " + filename);
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        Rectangle bounds = region.intersection(
+            new Rectangle(reader.getWidth(0), reader.getHeight(0)));
+        if (bounds.isEmpty()) {
+          return textOf("");
+        }
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(bounds);
+        return decodeRegion(reader.read(0, param), bounds.x, bounds.y);
+      } finally {
+        reader.dispose();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Interpret the rows of an image file between two rows as text. For
+   * images synced with newlines these are whole lines.
+   *
+   * @param filename    Filename of image that will be interpreted as text
+   * @param fromRow     first row to interpret
+   * @param toRow       row after the last row to interpret
+   * @return Corpus     text of the words in the rows
+   * @throws IOException  If the file can't be read as an image
+   * @since 0.1
+   */
+  public Corpus openRows(String filename, int fromRow, int toRow) throws IOException {
+    return openRegion(filename, new Rectangle(0, fromRow, Integer.MAX_VALUE, toRow - fromRow));
+  }
+
+  /**
+   * Interpret part of an image that is already in memory as text. The
+   * region shares the image's pixels rather than copying them.
+   *
+   * @param loadedImage   image that will be interpreted as text
+   * @param region        pixels to interpret; the part outside the image is ignored
+   * @return Corpus       text of the words inside the region
+   * @since 0.1
+   */
+  public Corpus openRegion(BufferedImage loadedImage, Rectangle region) {
+    Rectangle bounds = region.intersection(
+        new Rectangle(loadedImage.getWidth(), loadedImage.getHeight()));
+    if (bounds.isEmpty()) {
+      return textOf("");
+    }
+    BufferedImage pixels = loadedImage.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height);
+    return decodeRegion(pixels, bounds.x, bounds.y);
+  }
+
+  /**
+   * Interpret the pixels of a region of an image as text. Rows end lines
+   * when newlines are synced with the vertical axis, except for rows that
+   * wrapped lines of ragged images continue on.
+   *
+   * @param pixels      the region's pixels
+   * @param left        column of the image the region starts at
+   * @param top         row of the image the region starts at
+   * @return Corpus     text of the words in the region
+   */
+  private Corpus decodeRegion(BufferedImage pixels, int left, int top) {
+    StringBuilder result = new StringBuilder();
+    int width = pixels.getWidth();
+    int[] row = new int[width];
+    int[] lookup = paletteLookup(pixels);
+    boolean sync = layout.isSyncNewlineAndVertical();
 
     // build image
-    if (syncNewlineAndVertical) {
-      for (int y = 0; y < loadedImage.getHeight(); y++) {
-        for (int x = 0; x < loadedImage.getWidth(); x++) {
-          String word = colorToWord(loadedImage.getRGB(x, y));
-          // For now, we ignore newline colors if syncing newlines with vertical axis
-          if (!word.equals("\n")) {
-            result.append(word + " ");
-          }
+    for (int y = 0; y < pixels.getHeight(); y++) {
+      readRow(pixels, y, row, lookup);
+      for (int x = 0; x < width; x++) {
+        String word = (row[x] == NO_WORD) ? "" : codebook.word(row[x]);
+        // For now, we ignore newline colors if syncing newlines with vertical axis
+        if (!sync || !word.equals("\n")) {
+          result.append(word).append(' ');
         }
-        result.append("\n");
       }
-    } else {
-      for (int y = 0; y < loadedImage.getHeight(); y++) {
-        for (int x = 0; x < loadedImage.getWidth(); x++) {
-          result.append(colorToWord(loadedImage.getRGB(x, y)) + " ");
+      if (sync && endsLine(top + y)) {
+        result.append('\n');
+      }
+    }
+    return textOf(result.toString());
+  }
+
+  private static Corpus textOf(String text) {
+    Corpus c = new Corpus();
+    c.loadText(text);
+    return c;
+  }
+
+  /**
+   * Does a row of a newline synced image end a line? Every row does, except
+   * in ragged images, where padding rows belong to no line and wrapped
+   * lines only end on their last row.
+   *
+   * @param y     row of the image
+   */
+  private boolean endsLine(int y) {
+    if (lineTable == null) {
+      return true;
+    }
+    int tableRow = y - layout.padding(lineTable.rowCount());
+    if (tableRow < 0 || tableRow >= lineTable.rowCount()) {
+      return false;
+    }
+    return lineTable.firstRow(lineTable.lineAtRow(tableRow) + 1) == tableRow + 1;
+  }
+
+  /**
+   * Interpret a ragged image using the line table. Only the pixels of each
+   * line's words are read; the empty ends of wrapped rows and the padding
+   * are skipped.
+   *
+   * @param loadedImage   image with the dimensions the line table gives
+   * @return Corpus       Representation of text interpreted from the image
+   */
+  private Corpus openRaggedImage(BufferedImage loadedImage) {
+    int wrapWidth = lineTable.wrapWidth();
+    int padding = layout.padding(wrapWidth);
+    int topPadding = layout.padding(lineTable.rowCount());
+    if (loadedImage.getWidth() != wrapWidth + (2 * padding)
+        || loadedImage.getHeight() != lineTable.rowCount() + (2 * topPadding)) {
+      throw new IllegalArgumentException("image size doesn't match its line table");
+    }
+    StringBuilder result = new StringBuilder();
+    int[] row = new int[wrapWidth];
+    int[] lookup = paletteLookup(loadedImage);
+    for (int line = 0; line < lineTable.lineCount(); line++) {
+      int length = lineTable.lineLength(line);
+      int y = topPadding + lineTable.firstRow(line);
+      for (int offset = 0; offset < length; offset += wrapWidth, y++) {
+        int width = Math.min(wrapWidth, length - offset);
+        readRow(loadedImage, padding, y, width, row, lookup);
+        for (int x = 0; x < width; x++) {
+          String word = (row[x] == NO_WORD) ? "" : codebook.word(row[x]);
+          if (!word.equals("\n")) {
+            result.append(word).append(' ');
+          }
         }
       }
+      result.append('\n');
     }
     Corpus c = new Corpus();
     c.loadText(result.toString());
@@ -324,67 +710,67 @@ public class TextAsImage {
   }
 
   /**
-   * Setter for pad flag. Recalculates image dimensions.
+   * Copy with the pad flag changed; the mapping is shared.
    *
    * @param b         pad images created with neutral color
+   * @return          encoder with the new image dimensions
    * @since 0.1
    */
-  public void setToPad(boolean b) {
-    this.toPadImage = b;
-    calculateImageDimensions();
+  public TextAsImage withPadding(boolean b) {
+    return withLayout(layout.withPadding(b));
   }
 
   /**
-   * Setter for synchronizing newline vertical axis. Recalculates image dimensions.
+   * Copy that stores images as palette indices. Vocabularies of at most 255
+   * words are written as 8-bit palette images showing the same colors as the
+   * RGB ones, and vocabularies of fewer than 65535 words as 16-bit images
+   * whose single band holds the rank. Larger vocabularies always use RGB.
    *
-   * @param b         determines if image will use vertical axis for newlines or special color.
+   * @param b         store ranks as indices rather than colors when possible
+   * @return          encoder with the new storage
    * @since 0.1
    */
-  public void setSyncNewlineAndVertical(boolean b) {
-    this.syncNewlineAndVertical = b;
-    calculateImageDimensions();
+  public TextAsImage withIndexedColor(boolean b) {
+    return withLayout(layout.withIndexedColor(b));
   }
 
   /**
-   * Determine the size of an image based on flags and text size.
+   * Copy with newline syncing changed; the mapping is shared.
    *
+   * @param b         determines if image will use vertical axis for newlines or special color.
+   * @return          encoder with the new image dimensions
    * @since 0.1
    */
-  private void calculateImageDimensions() {
-    if (syncNewlineAndVertical) {
-      imageWidth = this.corpus.maxLineLength()+1;
-      imageHeight = this.corpus.newlineCount()+1;
-    } else {
-      imageWidth = (int) Math.ceil(Math.sqrt((double) this.corpus.length()));
-      imageHeight = imageWidth;
-    }
+  public TextAsImage withSyncNewlineAndVertical(boolean b) {
+    return withLayout(layout.withSyncNewlineAndVertical(b));
+  }
 
-    if (toPadImage) {
-      verticalPadding = (int) (imageHeight * padRatio);
-      horizontalPadding = (int) (imageWidth * padRatio);
+  /**
+   * Copy with different image creation parameters; the mapping is shared.
+   *
+   * @param newLayout   image creation parameters
+   * @return            encoder using them, or this object if they are unchanged
+   * @since 0.1
+   */
+  public TextAsImage withLayout(Layout newLayout) {
+    return newLayout.equals(layout) ? this : new TextAsImage(codebook, corpus, newLayout);
+  }
 
-      imageWidth = imageWidth + (2 * horizontalPadding);
-      imageHeight = imageHeight + (2 * verticalPadding);
-    }
+  /**
+   * Image creation parameters of this object.
+   *
+   * @return      the layout of created images
+   * @since 0.1
+   */
+  public Layout getLayout() {
+    return layout;
   }
 
   public Word[] wordEntries() {
     ArrayList<Word> currentWords = new ArrayList<Word>();
-    List<Map.Entry<String, Integer>> histoKVList = getMapping();
-    for (int i = 0; i < this.corpus.uniqueWordCount(); i++) {
-      String text = histoKVList.get(i).getKey();
-      currentWords.add(new Word(text, histoKVList.get(i).getValue(), new Color(wordToColor.get(text))));
+    for (int i = 0; i < codebook.size(); i++) {
+      currentWords.add(new Word(codebook.word(i), codebook.frequency(i), new Color(codebook.rankToColor(i))));
     }
     return currentWords.toArray(new Word[0]);
   }
-
-  // TODO: move to some other file
-  // Compare Map.Entry's based on the size of the integer value
-  // used to sort words by their occurence frequencies.
-  class WordFreqEntryComparator implements Comparator<Map.Entry<String, Integer>> {
-    @Override
-    public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
-        return a.getValue().compareTo(b.getValue());
-    }
-  }
 }
@@ -0,0 +1,176 @@
+package net.quined.textual_filters;
+
+/**
+ * Splits text into words and lines, one chunk of characters at a time.
+ *
+ * Lines are split the same way Scanner.nextLine splits them and words the
+ * same way Scanner.next splits them, so every whitespace character separates
+ * words. Words and line breaks may span chunk boundaries. Each word is
+ * collected in a reusable buffer, run through the configured normalizers and
+ * handed to a Sink without creating a String.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.util.List;
+
+class Tokenizer {
+
+  /**
+   * Receives the words and lines found by a Tokenizer.
+   */
+  interface Sink {
+    /**
+     * A word was found. The characters are only valid during the call.
+     */
+    void word(CharSequence chars, int start, int end);
+
+    /**
+     * A line ended and more text follows it.
+     */
+    void lineBreak();
+
+    /**
+     * A line ended; called after lineBreak, and once for the last line.
+     */
+    void endLine();
+  }
+
+  private final Sink sink;
+  private final List<WordNormalizer> normalizers;
+  // should leading and trailing punctuation become words of their own?
+  private final boolean splitPunctuation;
+
+  // characters of the word being scanned, reused across words
+  private final StringBuilder wordBuffer = new StringBuilder();
+  // has the current line seen any characters?
+  private boolean lineHasText;
+  // a line break was seen but it is not yet known if more text follows it
+  private boolean lineBreakPending;
+  private boolean lastWasCarriageReturn;
+
+  /**
+   * @param sink                receives words and lines
+   * @param normalizers         applied to every word, in order
+   * @param splitPunctuation    split punctuation off the ends of words
+   */
+  Tokenizer(Sink sink, List<WordNormalizer> normalizers, boolean splitPunctuation) {
+    this.sink = sink;
+    this.normalizers = normalizers;
+    this.splitPunctuation = splitPunctuation;
+  }
+
+  /**
+   * Tokenize a chunk of text. Chunks are fed in order.
+   *
+   * @param chunk     characters to scan
+   * @param from      index of the first character to scan
+   * @param to        index after the last character to scan
+   */
+  void scan(CharSequence chunk, int from, int to) {
+    for (int i = from; i < to; i++) {
+      char ch = chunk.charAt(i);
+      if (lastWasCarriageReturn) {
+        lastWasCarriageReturn = false;
+        if (ch == '\n') {
+          // second half of a \r\n line break
+          continue;
+        }
+      }
+      if (lineBreakPending) {
+        // more text follows the line break
+        lineBreakPending = false;
+        sink.lineBreak();
+        endLine();
+      }
+      if (isLineSeparator(ch)) {
+        endWord();
+        lineBreakPending = true;
+        lastWasCarriageReturn = (ch == '\r');
+      } else {
+        lineHasText = true;
+        if (Character.isWhitespace(ch)) {
+          endWord();
+        } else {
+          wordBuffer.append(ch);
+        }
+      }
+    }
+  }
+
+  /**
+   * Flush the last word and line.
+   */
+  void finish() {
+    endWord();
+    if (lineBreakPending || lineHasText) {
+      // the final line break, if any, isn't followed by text
+      endLine();
+    }
+    lineBreakPending = false;
+    lastWasCarriageReturn = false;
+  }
+
+  private void endLine() {
+    sink.endLine();
+    lineHasText = false;
+  }
+
+  private void endWord() {
+    if (wordBuffer.length() == 0) {
+      return;
+    }
+    for (int i = 0; i < normalizers.size(); i++) {
+      normalizers.get(i).normalize(wordBuffer);
+    }
+    int end = wordBuffer.length();
+    if (!splitPunctuation) {
+      if (end > 0) {
+        sink.word(wordBuffer, 0, end);
+      }
+    } else {
+      int start = 0;
+      while (start < end && isPunctuation(wordBuffer.charAt(start))) {
+        sink.word(wordBuffer, start, start + 1);
+        start++;
+      }
+      int coreEnd = end;
+      while (coreEnd > start && isPunctuation(wordBuffer.charAt(coreEnd - 1))) {
+        coreEnd--;
+      }
+      if (coreEnd > start) {
+        sink.word(wordBuffer, start, coreEnd);
+      }
+      for (int i = coreEnd; i < end; i++) {
+        sink.word(wordBuffer, i, i + 1);
+      }
+    }
+    wordBuffer.setLength(0);
+  }
+
+  /**
+   * Line separators recognized by Scanner.nextLine; \r\n is handled as one.
+   */
+  static boolean isLineSeparator(char ch) {
+    return ch == '\n' || ch == '\r' || ch == '\u2028' || ch == '\u2029' || ch == '\u0085';
+  }
+
+  /**
+   * Characters in one of Unicode's punctuation categories.
+   */
+  static boolean isPunctuation(char ch) {
+    switch (Character.getType(ch)) {
+      case Character.CONNECTOR_PUNCTUATION:
+      case Character.DASH_PUNCTUATION:
+      case Character.START_PUNCTUATION:
+      case Character.END_PUNCTUATION:
+      case Character.INITIAL_QUOTE_PUNCTUATION:
+      case Character.FINAL_QUOTE_PUNCTUATION:
+      case Character.OTHER_PUNCTUATION:
+        return true;
+      default:
+        return false;
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package net.quined.textual_filters;
+
+/**
+ * Counts the distinct words of a text while it is tokenized.
+ *
+ * Words are looked up by their characters, so the tokenizer can hash the
+ * contents of its reusable word buffer directly; a String is only created
+ * the first time a word is seen. Every later occurrence shares that String.
+ * Words are numbered in order of first appearance.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+class WordDictionary {
+  private static final int INITIAL_CAPACITY = 64;
+
+  // words, their hashes and occurrence counts, indexed by word id
+  private String[] words = new String[INITIAL_CAPACITY];
+  private int[] hashes = new int[INITIAL_CAPACITY];
+  private int[] counts = new int[INITIAL_CAPACITY];
+  private int size;
+  // open addressing table holding word id + 1, or 0 for a free slot
+  private int[] slots = new int[2 * INITIAL_CAPACITY];
+
+  /**
+   * Count an occurrence of a word.
+   *
+   * @param chars     characters holding the word
+   * @param start     index of the word's first character
+   * @param end       index after the word's last character
+   * @return          id of the word
+   */
+  int add(CharSequence chars, int start, int end) {
+    if (size == words.length) {
+      grow();
+    }
+    int hash = hash(chars, start, end);
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    while (slots[slot] != 0) {
+      int id = slots[slot] - 1;
+      if (hashes[id] == hash && matches(words[id], chars, start, end)) {
+        counts[id]++;
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    int id = size++;
+    boolean whole = (chars instanceof String) && start == 0 && end == chars.length();
+    words[id] = whole ? (String) chars : chars.subSequence(start, end).toString();
+    hashes[id] = hash;
+    counts[id] = 1;
+    slots[slot] = id + 1;
+    return id;
+  }
+
+  /**
+   * The String shared by all occurrences of a word.
+   */
+  String word(int id) {
+    return words[id];
+  }
+
+  int count(int id) {
+    return counts[id];
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Build a map from words to the number of their occurences.
+   */
+  HashMap<String, Integer> toHistogram() {
+    HashMap<String, Integer> histogram = new HashMap<String, Integer>(2 * size);
+    for (int id = 0; id < size; id++) {
+      histogram.put(words[id], counts[id]);
+    }
+    return histogram;
+  }
+
+  private void grow() {
+    int capacity = 2 * words.length;
+    words = Arrays.copyOf(words, capacity);
+    hashes = Arrays.copyOf(hashes, capacity);
+    counts = Arrays.copyOf(counts, capacity);
+    slots = new int[2 * capacity];
+    int mask = slots.length - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = hashes[id] & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = id + 1;
+    }
+  }
+
+  /**
+   * String.hashCode of the characters, with the high bits spread downwards.
+   */
+  private static int hash(CharSequence chars, int start, int end) {
+    int h = 0;
+    for (int i = start; i < end; i++) {
+      h = 31 * h + chars.charAt(i);
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean matches(String word, CharSequence chars, int start, int end) {
+    if (word.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < word.length(); i++) {
+      if (word.charAt(i) != chars.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,105 @@
+package net.quined.textual_filters;
+
+/**
+ * Rewrites a word in place while a text is tokenized, so that different
+ * spellings of the same word end up as one entry in the word histogram
+ * and hence one color in the image palette.
+ *
+ * Normalizers work on the tokenizer's reusable word buffer. The common
+ * cases don't allocate anything.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.text.Normalizer;
+
+public interface WordNormalizer {
+
+  /**
+   * Normalize a word in place. Leaving the buffer empty drops the word.
+   *
+   * @param word    characters of a single word
+   * @since 0.1
+   */
+  void normalize(StringBuilder word);
+
+  /**
+   * Fold words to lower case, so "Hello" and "hello" are the same word.
+   */
+  public static class CaseFolding implements WordNormalizer {
+    @Override
+    public void normalize(StringBuilder word) {
+      int length = word.length();
+      for (int i = 0; i < length; i++) {
+        char ch = word.charAt(i);
+        if (ch < 0x80) {
+          if (ch >= 'A' && ch <= 'Z') {
+            word.setCharAt(i, (char) (ch + ('a' - 'A')));
+          }
+        } else if (Character.isHighSurrogate(ch) && i + 1 < length
+                   && Character.isLowSurrogate(word.charAt(i + 1))) {
+          int lower = Character.toLowerCase(Character.toCodePoint(ch, word.charAt(i + 1)));
+          if (Character.charCount(lower) == 2) {
+            word.setCharAt(i, Character.highSurrogate(lower));
+            word.setCharAt(i + 1, Character.lowSurrogate(lower));
+          }
+          i++;
+        } else {
+          word.setCharAt(i, Character.toLowerCase(ch));
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove punctuation from the start and end of words, so "hello," and
+   * "(hello" are the same as "hello". Punctuation inside a word, as in
+   * "don't", is kept. Words made only of punctuation are dropped.
+   */
+  public static class StripPunctuation implements WordNormalizer {
+    @Override
+    public void normalize(StringBuilder word) {
+      int end = word.length();
+      while (end > 0 && Tokenizer.isPunctuation(word.charAt(end - 1))) {
+        end--;
+      }
+      word.setLength(end);
+      int start = 0;
+      while (start < end && Tokenizer.isPunctuation(word.charAt(start))) {
+        start++;
+      }
+      if (start > 0) {
+        word.delete(0, start);
+      }
+    }
+  }
+
+  /**
+   * Bring words into a Unicode normalization form, so composed and
+   * decomposed accents are the same word. Plain ASCII words are already
+   * normalized in every form and are skipped without looking them up.
+   */
+  public static class Unicode implements WordNormalizer {
+    private final Normalizer.Form form;
+
+    public Unicode(Normalizer.Form form) {
+      this.form = form;
+    }
+
+    @Override
+    public void normalize(StringBuilder word) {
+      int length = word.length();
+      int i = 0;
+      while (i < length && word.charAt(i) < 0x80) {
+        i++;
+      }
+      if (i == length || Normalizer.isNormalized(word, form)) {
+        return;
+      }
+      String normalized = Normalizer.normalize(word, form);
+      word.setLength(0);
+      word.append(normalized);
+    }
+  }
+}
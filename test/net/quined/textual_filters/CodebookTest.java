@@ -0,0 +1,82 @@
+package net.quined.textual_filters;
+
+/**
+ * Test saving and reopening the word to color mapping.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class CodebookTest {
+
+  /**
+   * An opened codebook maps colors to the same words as the one it was
+   * saved from, and remembers the layout.
+   */
+  @Test
+  public void saveAndOpen() throws IOException {
+    Corpus c = new Corpus();
+    c.loadText("the cat saw the dog\nthe dog saw a bird\ncaf\u00e9 au lait");
+    Codebook original = new Codebook(c);
+    Layout layout = Layout.DEFAULT.withPadding(true).withSyncNewlineAndVertical(false);
+
+    File file = File.createTempFile("codebook", ".codebook");
+    try {
+      original.save(file.getPath(), layout);
+      Codebook opened = Codebook.open(file.getPath());
+      assertEquals(original.size(), opened.size());
+      assertEquals(original.getEncoding(), opened.getEncoding());
+      assertEquals(layout, opened.getSavedLayout());
+      for (int rank = 0; rank < original.size(); rank++) {
+        int color = original.rankToColor(rank);
+        assertEquals(rank, opened.colorToRank(color));
+        assertEquals(original.word(rank), opened.word(rank));
+        assertEquals(original.frequency(rank), opened.frequency(rank));
+      }
+      // the newline word keeps its identity for getOriginalText
+      assertSame(Corpus.NEWLINE, opened.word(opened.rank(Corpus.NEWLINE)));
+      assertEquals(-1, opened.rank("missing"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Headers with out of range fields are rejected as IOExceptions rather
+   * than failing on the first lookup.
+   */
+  @Test
+  public void corruptHeader() throws IOException {
+    Corpus c = new Corpus();
+    c.loadText("one two two three three three");
+    File file = File.createTempFile("codebook", ".codebook");
+    try {
+      // encoding ordinal, word count, color gradient
+      int[][] corruptions = {{8, 7}, {8, -1}, {28, 1 << 30}, {28, -5}, {12, 0}};
+      for (int[] corruption : corruptions) {
+        new Codebook(c).save(file.getPath(), Layout.DEFAULT);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+          raf.seek(corruption[0]);
+          raf.writeInt(corruption[1]);
+        } finally {
+          raf.close();
+        }
+        try {
+          Codebook.open(file.getPath());
+          fail("opened a codebook with " + corruption[1] + " at offset " + corruption[0]);
+        } catch (IOException e) {
+          // expected
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}
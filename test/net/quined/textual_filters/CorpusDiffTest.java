@@ -0,0 +1,145 @@
+package net.quined.textual_filters;
+
+/**
+ * Test the word level distance and alignment against plain dynamic
+ * programming.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.List;
+import java.util.Random;
+
+public class CorpusDiffTest {
+
+  /**
+   * Random sequences of up to a few hundred ids, over alphabets small enough
+   * to give long matches, cover single and multiple 64-bit blocks.
+   */
+  @Test
+  public void matchesDynamicProgramming() {
+    Random random = new Random(11);
+    for (int trial = 0; trial < 2000; trial++) {
+      int alphabet = 1 + random.nextInt(8);
+      int[] a = randomIds(random, random.nextInt(trial < 1000 ? 70 : 300), alphabet);
+      int[] b = mutate(random, a, alphabet);
+
+      assertEquals(levenshtein(a, b), CorpusDiff.levenshtein(a, b));
+      assertEquals(levenshtein(a, b), CorpusDiff.levenshtein(b, a));
+
+      List<CorpusDiff.Edit> edits = CorpusDiff.diff(a, b);
+      int changed = 0;
+      int[] rebuilt = new int[b.length];
+      int filled = 0;
+      int position = 0;
+      CorpusDiff.Operation previous = null;
+      for (CorpusDiff.Edit edit : edits) {
+        assertNotEquals(previous, edit.getOperation());
+        previous = edit.getOperation();
+        assertEquals(position, edit.getOriginalStart());
+        assertEquals(filled, edit.getFilteredStart());
+        switch (edit.getOperation()) {
+          case EQUAL:
+            for (int i = 0; i < edit.getLength(); i++) {
+              rebuilt[filled++] = a[position++];
+            }
+            break;
+          case DELETE:
+            position += edit.getLength();
+            changed += edit.getLength();
+            break;
+          case INSERT:
+            for (int i = 0; i < edit.getLength(); i++) {
+              rebuilt[filled] = b[filled];
+              filled++;
+            }
+            changed += edit.getLength();
+            break;
+        }
+      }
+      assertEquals(a.length, position);
+      assertArrayEquals(b, rebuilt);
+      // the alignment is a shortest insert and delete script
+      assertEquals(a.length + b.length - 2 * lcs(a, b), changed);
+    }
+  }
+
+  @Test
+  public void corpusComparison() {
+    Corpus original = new Corpus();
+    original.loadText("the quick brown fox\njumps over\nthe lazy dog");
+    Corpus filtered = new Corpus();
+    filtered.loadText("the quick brown fox\njumps under\nthe lazy dog");
+    CorpusDiff diff = new CorpusDiff(original, filtered);
+    assertEquals(1, diff.editDistance());
+    assertEquals(1.0 - 1.0 / original.length(), diff.similarity(), 1e-9);
+    double[] ratios = diff.lineChangeRatios();
+    assertEquals(3, ratios.length);
+    assertEquals(0.0, ratios[0], 0.0);
+    // "over" deleted and "under" inserted, of "jumps under \n" and "over"
+    assertEquals(2.0 / 4.0, ratios[1], 1e-9);
+    assertEquals(0.0, ratios[2], 0.0);
+
+    CorpusDiff same = new CorpusDiff(original, original);
+    assertEquals(0, same.editDistance());
+    assertEquals(1.0, same.similarity(), 0.0);
+    assertEquals(1, same.edits().size());
+  }
+
+  private static int[] randomIds(Random random, int length, int alphabet) {
+    int[] ids = new int[length];
+    for (int i = 0; i < length; i++) {
+      ids[i] = random.nextInt(alphabet);
+    }
+    return ids;
+  }
+
+  // a copy of a with some ids replaced, removed and added
+  private static int[] mutate(Random random, int[] a, int alphabet) {
+    int[] b = new int[2 * a.length + 10];
+    int length = 0;
+    double rate = random.nextDouble();
+    for (int i = 0; i <= a.length; i++) {
+      if (random.nextDouble() < rate / 3) {
+        b[length++] = random.nextInt(alphabet + 2);
+      }
+      if (i < a.length && random.nextDouble() >= rate / 3) {
+        b[length++] = (random.nextDouble() < rate / 3) ? random.nextInt(alphabet + 2) : a[i];
+      }
+    }
+    return java.util.Arrays.copyOf(b, length);
+  }
+
+  private static int levenshtein(int[] a, int[] b) {
+    int[] previous = new int[b.length + 1];
+    int[] current = new int[b.length + 1];
+    for (int j = 0; j <= b.length; j++) {
+      previous[j] = j;
+    }
+    for (int i = 1; i <= a.length; i++) {
+      current[0] = i;
+      for (int j = 1; j <= b.length; j++) {
+        int substitute = previous[j - 1] + (a[i - 1] == b[j - 1] ? 0 : 1);
+        current[j] = Math.min(substitute, Math.min(previous[j], current[j - 1]) + 1);
+      }
+      int[] swap = previous;
+      previous = current;
+      current = swap;
+    }
+    return previous[b.length];
+  }
+
+  private static int lcs(int[] a, int[] b) {
+    int[][] table = new int[a.length + 1][b.length + 1];
+    for (int i = 1; i <= a.length; i++) {
+      for (int j = 1; j <= b.length; j++) {
+        table[i][j] = (a[i - 1] == b[j - 1]) ? table[i - 1][j - 1] + 1
+                                             : Math.max(table[i - 1][j], table[i][j - 1]);
+      }
+    }
+    return table[a.length][b.length];
+  }
+}
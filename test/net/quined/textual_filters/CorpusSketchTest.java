@@ -0,0 +1,109 @@
+package net.quined.textual_filters;
+
+/**
+ * Test the streamed statistics against the exact ones of a Corpus.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import java.util.Map;
+import java.util.Random;
+
+public class CorpusSketchTest {
+  private static Corpus exact;
+  private static CorpusSketch sketch;
+
+  /**
+   * A skewed text of 200000 words from a vocabulary of 20000.
+   */
+  @BeforeClass
+  public static void loadText() {
+    StringBuilder text = new StringBuilder();
+    Random random = new Random(7);
+    for (int i = 0; i < 200000; i++) {
+      // cubing a uniform number favors small word numbers
+      double u = random.nextDouble();
+      text.append('w').append((int) (u * u * u * 20000));
+      text.append(random.nextInt(12) == 0 ? '\n' : ' ');
+    }
+    exact = new Corpus();
+    exact.loadText(text);
+    sketch = new CorpusSketch();
+    sketch.loadText(text);
+  }
+
+  @Test
+  public void exactCounts() {
+    assertEquals(exact.length(), sketch.length());
+    assertEquals(exact.newlineCount(), sketch.newlineCount());
+    assertEquals(exact.maxLineLength(), sketch.maxLineLength());
+    for (Layout layout : new Layout[] {Layout.DEFAULT, Layout.DEFAULT.withPadding(true),
+                                       Layout.DEFAULT.withSyncNewlineAndVertical(false),
+                                       Layout.DEFAULT.withRagged(true),
+                                       Layout.DEFAULT.withRagged(true).withPadding(true)}) {
+      TextAsImage tai = new TextAsImage(new Codebook(exact), exact, layout);
+      assertEquals(tai.getImageWidth(), sketch.imageWidth(layout));
+      assertEquals(tai.getImageHeight(), sketch.imageHeight(layout));
+    }
+    assertTrue(sketch.lineLengthQuantile(0.5) <= sketch.lineLengthQuantile(0.99));
+    assertEquals(sketch.maxLineLength(), sketch.lineLengthQuantile(1.0));
+  }
+
+  @Test
+  public void uniqueWordEstimate() {
+    double error = Math.abs(sketch.estimateUniqueWordCount() - exact.uniqueWordCount())
+                 / (double) exact.uniqueWordCount();
+    assertTrue("relative error " + error, error < 0.03);
+    assertEquals(TextAsImage.Encoding.RGB, sketch.estimateEncoding());
+    assertEquals(1, sketch.estimateColorGradient());
+  }
+
+  /**
+   * Estimates are never too low and rarely far too high.
+   */
+  @Test
+  public void frequencyEstimates() {
+    long slack = (long) Math.ceil(0.0001 * exact.length());
+    int tooHigh = 0;
+    for (Map.Entry<String, Integer> entry : exact.wordFrequency().entrySet()) {
+      long estimate = sketch.estimateFrequency(entry.getKey());
+      assertTrue(estimate >= entry.getValue());
+      if (estimate > entry.getValue() + slack) {
+        tooHigh++;
+      }
+    }
+    assertTrue(tooHigh <= exact.uniqueWordCount() / 100);
+  }
+
+  /**
+   * Every word occurring more than length / topK times is found, and counts
+   * are never too low.
+   */
+  @Test
+  public void topWords() {
+    Word[] top = sketch.topWords();
+    assertEquals(256, top.length);
+    Map<String, Integer> frequency = exact.wordFrequency();
+    int frequent = 0;
+    for (Map.Entry<String, Integer> entry : frequency.entrySet()) {
+      if (entry.getValue() > exact.length() / top.length) {
+        frequent++;
+        boolean found = false;
+        for (Word w : top) {
+          found |= w.text.equals(entry.getKey());
+        }
+        assertTrue(entry.getKey(), found);
+      }
+    }
+    assertTrue(frequent > 2);
+    for (Word w : top) {
+      assertTrue(w.frequency >= frequency.get(w.text));
+    }
+    assertEquals("\n", top[0].text);
+    assertEquals("w0", top[1].text);
+  }
+}
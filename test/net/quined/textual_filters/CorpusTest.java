@@ -12,6 +12,7 @@ import org.junit.Before;
 import org.junit.After;
 import org.junit.Test;
 import java.util.Map;
+import javax.swing.text.PlainDocument;
 
 public class CorpusTest {
   private Corpus c;
@@ -66,4 +67,85 @@ public class CorpusTest {
     assertEquals(inputStr, c.getOriginalText());
     assertEquals(14, c.uniqueWordCount());
   }
+
+  /**
+   * Loading from a Swing Document gives the same corpus as loading the
+   * equivalent String, and \r\n counts as a single line break.
+   */
+  @Test
+  public void loadDocumentMatchesString() throws Exception {
+    String inputStr = "Hello world!\r\n"
+                    + "\n"
+                    + "Is anyone there?\n";
+    PlainDocument doc = new PlainDocument();
+    doc.insertString(0, inputStr, null);
+
+    c.loadDocument(doc);
+    Corpus fromString = new Corpus();
+    fromString.loadText(inputStr);
+
+    assertEquals(7, c.length());
+    assertEquals(3, c.maxLineLength());
+    assertEquals(3, c.newlineCount());
+    assertEquals(fromString.length(), c.length());
+    assertEquals(fromString.wordFrequency(), c.wordFrequency());
+    assertEquals("Hello world!\n\nIs anyone there?", c.getOriginalText());
+  }
+
+  /**
+   * Lines are indexed by their first word and their length doesn't include
+   * the newline that ends them.
+   */
+  @Test
+  public void lineTable() {
+    c.loadText("one two\n\nthree four five");
+    Corpus other = new Corpus();
+    other.loadText("one two\nsix\nthree four five");
+
+    assertEquals(0, c.lineStart(0));
+    assertEquals(2, c.lineLength(0));
+    assertEquals(3, c.lineStart(1));
+    assertEquals(0, c.lineLength(1));
+    assertEquals(4, c.lineStart(2));
+    assertEquals(3, c.lineLength(2));
+
+    assertTrue(c.lineEquals(0, other, 0));
+    assertFalse(c.lineEquals(1, other, 1));
+    assertTrue(c.lineEquals(2, other, 2));
+  }
+
+  /**
+   * Case folding and punctuation stripping merge the spellings of a word.
+   */
+  @Test
+  public void normalizeWords() {
+    c.addNormalizer(new WordNormalizer.CaseFolding());
+    c.addNormalizer(new WordNormalizer.StripPunctuation());
+    c.loadText("Hello hello, \"HELLO\" -- don't");
+    assertEquals(4, c.length());
+    assertEquals(2, c.uniqueWordCount());
+    assertEquals(3, (int) c.wordFrequency().get("hello"));
+    assertEquals("hello hello hello don't", c.getOriginalText());
+  }
+
+  /**
+   * Punctuation at the ends of words can be split off into words of its own.
+   */
+  @Test
+  public void splitPunctuation() {
+    c.setSplitPunctuation(true);
+    c.loadText("Hello, (world)!");
+    assertEquals(6, c.length());
+    assertEquals("Hello , ( world ) !", c.getOriginalText());
+  }
+
+  /**
+   * Composed and decomposed accents are the same word in NFC.
+   */
+  @Test
+  public void unicodeNormalization() {
+    c.addNormalizer(new WordNormalizer.Unicode(java.text.Normalizer.Form.NFC));
+    c.loadText("caf\u00e9 cafe\u0301");
+    assertEquals(1, c.uniqueWordCount());
+  }
 }
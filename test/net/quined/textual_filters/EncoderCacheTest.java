@@ -0,0 +1,72 @@
+package net.quined.textual_filters;
+
+/**
+ * Test reuse and eviction of cached encoder state.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+
+public class EncoderCacheTest {
+
+  /**
+   * The same text returns the same corpus, whether it comes as a String, a
+   * StringBuilder or a Document.
+   */
+  @Test
+  public void sameTextHits() throws BadLocationException {
+    EncoderCache cache = new EncoderCache(4, 1 << 20);
+    EncoderCache.Entry first = cache.get("one two\nthree");
+    assertSame(first, cache.get(new StringBuilder("one two\nthree")));
+    PlainDocument doc = new PlainDocument();
+    doc.insertString(0, "one two\nthree", null);
+    assertSame(first, cache.get(doc));
+    assertNotSame(first, cache.get("one two\nthree "));
+    assertEquals(2, cache.hitCount());
+    assertEquals(2, cache.missCount());
+    assertSame(first.getCodebook(), first.getCodebook());
+  }
+
+  /**
+   * A document missing from the cache is loaded from the document itself,
+   * and its entry serves the same text as a String.
+   */
+  @Test
+  public void documentMiss() throws BadLocationException {
+    EncoderCache cache = new EncoderCache(4, 1 << 20);
+    PlainDocument doc = new PlainDocument();
+    doc.insertString(0, "the sea\nthe salt sea", null);
+    EncoderCache.Entry entry = cache.get(doc);
+    assertEquals("the sea\nthe salt sea", entry.getCorpus().getOriginalText());
+    assertSame(entry, cache.get("the sea\nthe salt sea"));
+    doc.insertString(doc.getLength(), "s", null);
+    assertNotSame(entry, cache.get(doc));
+    assertEquals(1, cache.hitCount());
+    assertEquals(2, cache.missCount());
+  }
+
+  /**
+   * The least recently used text goes first when either bound is reached.
+   */
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    EncoderCache cache = new EncoderCache(2, 1 << 20);
+    EncoderCache.Entry a = cache.get("a");
+    cache.get("b");
+    cache.get("a");
+    cache.get("c");
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.evictionCount());
+    assertSame(a, cache.get("a"));
+
+    EncoderCache tiny = new EncoderCache(10, 1);
+    tiny.get("too big to cache");
+    assertEquals(0, tiny.size());
+    assertEquals(0, tiny.estimatedBytes());
+  }
+}
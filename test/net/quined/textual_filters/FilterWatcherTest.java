@@ -0,0 +1,144 @@
+package net.quined.textual_filters;
+
+/**
+ * Test decoding filtered images dropped into a watched folder.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import javax.imageio.ImageIO;
+
+public class FilterWatcherTest {
+
+  /**
+   * Images present at startup and images written later are both decoded
+   * with the project's codebook.
+   */
+  @Test
+  public void decodesNewImages() throws Exception {
+    Path dir = Files.createTempDirectory("watch");
+    Corpus first = new Corpus();
+    first.loadText("a rose is a rose\nis a rose");
+    TextAsImage firstImage = new TextAsImage(first);
+    firstImage.saveCodebook(dir.resolve("first.codebook").toString());
+    ImageIO.write(firstImage.createImage(), firstImage.imageFormat(),
+                  dir.resolve("first_filtered." + firstImage.imageFormat()).toFile());
+
+    FilterWatcher watcher = new FilterWatcher(dir, 2, 2);
+    Thread watching = new Thread(watcher);
+    watching.start();
+    try {
+      Corpus second = new Corpus();
+      second.loadText("the sea the sea\nthe salt sea");
+      TextAsImage secondImage = new TextAsImage(second);
+      secondImage.saveCodebook(dir.resolve("second.codebook").toString());
+      ImageIO.write(secondImage.createImage(), secondImage.imageFormat(),
+                    dir.resolve("second_filtered." + secondImage.imageFormat()).toFile());
+
+      assertEquals(first.getOriginalText().trim(), waitForText(dir.resolve("first_filtered.txt")));
+      assertEquals(second.getOriginalText().trim(), waitForText(dir.resolve("second_filtered.txt")));
+      assertEquals(0, watcher.failedCount());
+    } finally {
+      watcher.close();
+      watching.join();
+      for (File f : dir.toFile().listFiles()) {
+        f.delete();
+      }
+      Files.delete(dir);
+    }
+  }
+
+  /**
+   * An image that keeps failing because its codebook is missing is decoded
+   * once the codebook shows up.
+   */
+  @Test
+  public void codebookAfterImage() throws Exception {
+    Path dir = Files.createTempDirectory("watch");
+    FilterWatcher watcher = new FilterWatcher(dir, 1, 2);
+    Thread watching = new Thread(watcher);
+    watching.start();
+    try {
+      Corpus c = new Corpus();
+      c.loadText("late codebook\nlate codebook again");
+      TextAsImage image = new TextAsImage(c);
+      ImageIO.write(image.createImage(), image.imageFormat(),
+                    dir.resolve("late_filtered." + image.imageFormat()).toFile());
+      for (int i = 0; i < 200 && watcher.failedCount() == 0; i++) {
+        Thread.sleep(50);
+      }
+      assertEquals(1, watcher.failedCount());
+
+      image.saveCodebook(dir.resolve("late.codebook").toString());
+      assertEquals(c.getOriginalText().trim(), waitForText(dir.resolve("late_filtered.txt")));
+    } finally {
+      watcher.close();
+      watching.join();
+      for (File f : dir.toFile().listFiles()) {
+        f.delete();
+      }
+      Files.delete(dir);
+    }
+  }
+
+  /**
+   * A codebook rewritten with the same size and modification time is still
+   * picked up, as timestamps may be too coarse to tell the writes apart.
+   */
+  @Test
+  public void codebookRewrittenWithinTimestamp() throws Exception {
+    Path dir = Files.createTempDirectory("watch");
+    Path codebook = dir.resolve("p.codebook");
+    Corpus first = new Corpus();
+    first.loadText("ab cd ef\nab cd");
+    TextAsImage firstImage = new TextAsImage(first);
+    firstImage.saveCodebook(codebook.toString());
+    Path image = dir.resolve("p_filtered." + firstImage.imageFormat());
+    ImageIO.write(firstImage.createImage(), firstImage.imageFormat(), image.toFile());
+
+    FilterWatcher watcher = new FilterWatcher(dir, 1, 2);
+    Thread watching = new Thread(watcher);
+    watching.start();
+    try {
+      Path text = dir.resolve("p_filtered.txt");
+      assertEquals(first.getOriginalText().trim(), waitForText(text));
+      Files.delete(text);
+
+      Corpus second = new Corpus();
+      second.loadText("gh ij kl\ngh ij");
+      TextAsImage secondImage = new TextAsImage(second);
+      FileTime written = Files.getLastModifiedTime(codebook);
+      long size = Files.size(codebook);
+      secondImage.saveCodebook(codebook.toString());
+      Files.setLastModifiedTime(codebook, written);
+      assertEquals(size, Files.size(codebook));
+      ImageIO.write(secondImage.createImage(), secondImage.imageFormat(), image.toFile());
+      assertEquals(second.getOriginalText().trim(), waitForText(text));
+    } finally {
+      watcher.close();
+      watching.join();
+      for (File f : dir.toFile().listFiles()) {
+        f.delete();
+      }
+      Files.delete(dir);
+    }
+  }
+
+  private static String waitForText(Path text) throws IOException, InterruptedException {
+    for (int i = 0; i < 200 && !Files.exists(text); i++) {
+      Thread.sleep(50);
+    }
+    // sync mode ends every row with a newline; compare words and lines only
+    String decoded = new String(Files.readAllBytes(text), StandardCharsets.UTF_8);
+    return decoded.replaceAll(" *\n", "\n").trim();
+  }
+}
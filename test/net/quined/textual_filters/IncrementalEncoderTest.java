@@ -0,0 +1,120 @@
+package net.quined.textual_filters;
+
+/**
+ * Test incremental encoding against encoding the updated text from scratch.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class IncrementalEncoderTest {
+  private static final Layout[] LAYOUTS = {
+    Layout.DEFAULT,
+    Layout.DEFAULT.withSyncNewlineAndVertical(false),
+    Layout.DEFAULT.withSyncNewlineAndVertical(false).withPadding(true),
+    Layout.DEFAULT.withPadding(true).withIndexedColor(true),
+    Layout.DEFAULT.withRagged(true),
+  };
+
+  private static Corpus corpusOf(List<String> lines) {
+    Corpus c = new Corpus();
+    c.loadText(String.join("\n", lines));
+    return c;
+  }
+
+  private static void assertSamePixels(String edit, BufferedImage expected, BufferedImage actual) {
+    assertEquals(edit, expected.getWidth(), actual.getWidth());
+    assertEquals(edit, expected.getHeight(), actual.getHeight());
+    int width = expected.getWidth();
+    int height = expected.getHeight();
+    assertArrayEquals(edit, expected.getRGB(0, 0, width, height, null, 0, width),
+                      actual.getRGB(0, 0, width, height, null, 0, width));
+  }
+
+  /**
+   * Appending a line moves the newline that ends the old last line into the
+   * image, which the redrawn rows must include.
+   */
+  @Test
+  public void appendLine() {
+    List<String> lines = new ArrayList<String>(Arrays.asList("a a a a a", "b b b", "c"));
+    for (Layout layout : LAYOUTS) {
+      IncrementalEncoder encoder = new IncrementalEncoder();
+      encoder.update(corpusOf(lines), layout);
+      List<String> appended = new ArrayList<String>(lines);
+      appended.add("c");
+      Corpus updated = corpusOf(appended);
+      BufferedImage incremental = encoder.update(updated, layout);
+      BufferedImage full = new TextAsImage(new Codebook(updated), updated, layout).createImage();
+      assertSamePixels("layout " + layout.flags(), full, incremental);
+    }
+  }
+
+  /**
+   * Random inserts, deletes and appends of lines and words in every layout.
+   * The mapping in use always holds the frequencies of the current text.
+   */
+  @Test
+  public void randomEdits() {
+    Random random = new Random(13);
+    for (Layout layout : LAYOUTS) {
+      List<String> lines = new ArrayList<String>();
+      for (int i = 0; i < 30; i++) {
+        lines.add(randomLine(random));
+      }
+      IncrementalEncoder encoder = new IncrementalEncoder();
+      encoder.update(corpusOf(lines), layout);
+      for (int edit = 0; edit < 300; edit++) {
+        int line = random.nextInt(lines.size());
+        String kind;
+        switch (random.nextInt(4)) {
+          case 0:
+            kind = "insert";
+            lines.add(line, randomLine(random));
+            break;
+          case 1:
+            kind = "delete";
+            if (lines.size() > 1) {
+              lines.remove(line);
+            }
+            break;
+          case 2:
+            kind = "append";
+            lines.add(randomLine(random));
+            break;
+          default:
+            kind = "change";
+            lines.set(line, randomLine(random));
+        }
+        Corpus updated = corpusOf(lines);
+        BufferedImage incremental = encoder.update(updated, layout);
+        Codebook codebook = encoder.getEncoder().getCodebook();
+        BufferedImage full = new TextAsImage(codebook, updated, layout).createImage();
+        assertSamePixels(kind + " at " + line + " in layout " + layout.flags(), full, incremental);
+        // reused mappings still report the counts of the new text
+        for (int rank = 0; rank < codebook.size(); rank++) {
+          assertEquals(updated.wordFrequency().get(codebook.word(rank)).intValue(),
+                       codebook.frequency(rank));
+        }
+      }
+    }
+  }
+
+  // a few words from a small vocabulary, so the mapping often holds
+  private static String randomLine(Random random) {
+    StringBuilder line = new StringBuilder();
+    int length = random.nextInt(6);
+    for (int i = 0; i < length; i++) {
+      line.append(i == 0 ? "" : " ").append((char) ('a' + random.nextInt(4)));
+    }
+    return line.toString();
+  }
+}
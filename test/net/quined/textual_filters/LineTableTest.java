@@ -0,0 +1,124 @@
+package net.quined.textual_filters;
+
+/**
+ * Test ragged images and their line tables.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Random;
+
+public class LineTableTest {
+
+  /**
+   * Mostly short lines with a few very long ones.
+   */
+  private static Corpus skewedLines() {
+    StringBuilder text = new StringBuilder();
+    Random random = new Random(11);
+    for (int line = 0; line < 2000; line++) {
+      int length = (line % 100 == 0) ? 400 + random.nextInt(200) : random.nextInt(12);
+      for (int i = 0; i < length; i++) {
+        text.append('w').append(random.nextInt(300)).append(' ');
+      }
+      text.append('\n');
+    }
+    Corpus c = new Corpus();
+    c.loadText(text);
+    return c;
+  }
+
+  /**
+   * Wrapped images decode to the original text while taking far less area
+   * than synced ones, and stay within a quarter of one pixel per word and
+   * empty line.
+   */
+  @Test
+  public void raggedRoundTrip() {
+    Corpus c = skewedLines();
+    TextAsImage synced = new TextAsImage(c);
+    for (boolean indexed : new boolean[] {false, true}) {
+      TextAsImage ragged = synced.withLayout(Layout.DEFAULT.withRagged(true).withIndexedColor(indexed));
+      LineTable table = ragged.getLineTable();
+      assertNotNull(table);
+      assertSame(synced.getCodebook(), ragged.getCodebook());
+      BufferedImage image = ragged.createImage();
+      assertEquals(table.wrapWidth(), image.getWidth());
+      assertEquals(table.rowCount(), image.getHeight());
+      assertEquals(c.getOriginalText(), ragged.openImage(image).getOriginalText());
+
+      long minimum = 0;
+      for (int line = 0; line < table.lineCount(); line++) {
+        minimum += Math.max(1, table.lineLength(line));
+        assertEquals(line, table.lineAtRow(table.firstRow(line)));
+      }
+      long area = (long) image.getWidth() * image.getHeight();
+      assertTrue("area " + area, area <= minimum * 1.25);
+      assertTrue(area * 10 < (long) synced.getImageWidth() * synced.getImageHeight());
+    }
+  }
+
+  /**
+   * Without newline sync nothing wraps, so the ragged flag makes no
+   * difference to a layout.
+   */
+  @Test
+  public void raggedNeedsSync() {
+    Layout flat = Layout.DEFAULT.withSyncNewlineAndVertical(false);
+    assertFalse(flat.withRagged(true).isRagged());
+    assertEquals(flat, flat.withRagged(true));
+    assertEquals(flat.hashCode(), flat.withRagged(true).hashCode());
+    assertFalse(Layout.DEFAULT.equals(Layout.DEFAULT.withRagged(true)));
+    assertTrue(flat.withRagged(true).withSyncNewlineAndVertical(true).isRagged());
+  }
+
+  /**
+   * Empty texts get a one pixel image like synced ones, which decodes to
+   * no words.
+   */
+  @Test
+  public void emptyText() {
+    Corpus c = new Corpus();
+    c.loadText("");
+    TextAsImage ragged = new TextAsImage(new Codebook(c), c, Layout.DEFAULT.withRagged(true));
+    assertEquals(1, ragged.getLineTable().rowCount());
+    BufferedImage image = ragged.createImage();
+    assertEquals(1, image.getWidth());
+    assertEquals(1, image.getHeight());
+    assertEquals(0, ragged.openImage(image).length());
+  }
+
+  /**
+   * A saved table lets a decoder without the text read a padded ragged image.
+   */
+  @Test
+  public void decodeFromFiles() throws Exception {
+    Corpus c = skewedLines();
+    TextAsImage ragged = new TextAsImage(new Codebook(c), c,
+                                         Layout.DEFAULT.withRagged(true).withPadding(true));
+    BufferedImage image = ragged.createImage();
+    File codebook = File.createTempFile("ragged", ".codebook");
+    File lines = File.createTempFile("ragged", ".lines");
+    try {
+      ragged.saveCodebook(codebook.getPath());
+      ragged.getLineTable().save(lines.getPath());
+      TextAsImage decoder = TextAsImage.openCodebook(codebook.getPath());
+      assertTrue(decoder.getLayout().isRagged());
+      LineTable table = LineTable.open(lines.getPath());
+      assertEquals(ragged.getLineTable().wrapWidth(), table.wrapWidth());
+      assertEquals(ragged.getLineTable().rowCount(), table.rowCount());
+      decoder = decoder.withLineTable(table);
+      assertEquals(ragged.openImage(image).getOriginalText(),
+                   decoder.openImage(image).getOriginalText());
+      assertEquals(c.newlineCount(), decoder.openImage(image).newlineCount());
+    } finally {
+      codebook.delete();
+      lines.delete();
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package net.quined.textual_filters;
+
+/**
+ * Test that generated text only follows transitions seen in the corpus.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import java.util.HashSet;
+import java.util.Set;
+
+public class MarkovGeneratorTest {
+  private Corpus c;
+  private MarkovGenerator g;
+
+  @Before
+  public void setUp() {
+    c = new Corpus();
+    c.loadText("the cat sat on the mat\n"
+             + "the dog sat on the log\n"
+             + "a cat and a dog");
+    g = new MarkovGenerator(c);
+  }
+
+  /**
+   * Every pair of consecutive generated words occurs in the corpus.
+   */
+  @Test
+  public void followsObservedBigrams() {
+    Set<String> bigrams = new HashSet<String>();
+    for (int i = 0; i + 1 < c.length(); i++) {
+      bigrams.add(c.getWord(i) + "|" + c.getWord(i + 1));
+    }
+    g.setSeed(42);
+    int[] tokens = new int[10000];
+    g.generate(tokens, 0, tokens.length);
+    for (int i = 0; i + 1 < tokens.length; i++) {
+      String pair = g.word(tokens[i]) + "|" + g.word(tokens[i + 1]);
+      assertTrue(pair, bigrams.contains(pair));
+    }
+  }
+
+  /**
+   * The same seed generates the same lines.
+   */
+  @Test
+  public void seedIsReproducible() {
+    StringBuilder first = new StringBuilder();
+    StringBuilder second = new StringBuilder();
+    g.setSeed(7);
+    for (int i = 0; i < 20; i++) {
+      g.appendLine(first, 16);
+    }
+    MarkovGenerator other = new MarkovGenerator(c);
+    other.setSeed(7);
+    for (int i = 0; i < 20; i++) {
+      other.appendLine(second, 16);
+    }
+    assertEquals(first.toString(), second.toString());
+    assertEquals(10, g.vocabularySize());
+  }
+
+  /**
+   * A seed text sets the context the generator continues from.
+   */
+  @Test
+  public void continuesFromSeedText() {
+    Corpus seed = new Corpus();
+    seed.loadText("unknown words then the dog");
+    g.continueFrom(seed);
+    g.setSeed(3);
+    // "the dog" is always followed by "sat"
+    assertEquals("sat", g.word(g.nextToken()));
+  }
+}
@@ -0,0 +1,97 @@
+package net.quined.textual_filters;
+
+/**
+ * Test corpora stored as bit-packed ranks.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+public class PackedTokensTest {
+  private static final int WORDS = 200000;
+
+  private static Corpus zipfText() {
+    Corpus c = new Corpus();
+    c.loadText(new ZipfCorpusGenerator(3, 20000, 1.0, 12).generate(WORDS));
+    return c;
+  }
+
+  /**
+   * Single words and runs across block boundaries decode to the codebook
+   * ranks of the original words, in a fraction of a reference per word.
+   */
+  @Test
+  public void ranksMatchCodebook() {
+    Corpus c = zipfText();
+    Codebook codebook = new Codebook(c);
+    PackedTokens packed = new PackedTokens(c, codebook);
+    assertEquals(c.length(), packed.size());
+    for (int i = 0; i < c.length(); i++) {
+      assertEquals(codebook.rank(c.getWord(i)), packed.rank(i));
+    }
+    Random random = new Random(5);
+    int[] run = new int[1000];
+    for (int trial = 0; trial < 200; trial++) {
+      int count = random.nextInt(run.length);
+      int from = random.nextInt(c.length() - count);
+      packed.ranks(from, run, 0, count);
+      for (int i = 0; i < count; i++) {
+        assertEquals(packed.rank(from + i), run[i]);
+      }
+    }
+    assertTrue("bytes " + packed.estimatedBytes(), packed.estimatedBytes() < 2L * c.length());
+  }
+
+  /**
+   * A packed corpus reads and encodes like the unpacked one.
+   */
+  @Test
+  public void packedCorpus() {
+    Corpus c = zipfText();
+    Codebook codebook = new Codebook(c);
+    TextAsImage before = new TextAsImage(codebook, c, Layout.DEFAULT.withSyncNewlineAndVertical(false));
+    BufferedImage expected = before.createImage();
+    String text = c.getOriginalText();
+
+    Corpus packed = zipfText();
+    assertSame(packed.packTokens(codebook), packed.getPackedTokens());
+    assertEquals(text, packed.getOriginalText());
+    assertTrue(packed.lineEquals(7, c, 7));
+    TextAsImage after = new TextAsImage(codebook, packed, before.getLayout());
+    BufferedImage image = after.createImage();
+    assertArrayEquals(expected.getRGB(0, 0, expected.getWidth(), expected.getHeight(), null, 0, expected.getWidth()),
+                      image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth()));
+  }
+
+  /**
+   * Words packed while loading match words packed after loading, and the
+   * corpus keeps its line structure and histogram.
+   */
+  @Test
+  public void packWhileLoading() {
+    Corpus c = zipfText();
+    Corpus loaded = new Corpus();
+    loaded.setPackTokens(true);
+    loaded.loadText(new ZipfCorpusGenerator(3, 20000, 1.0, 12).generate(WORDS));
+    PackedTokens packed = loaded.getPackedTokens();
+    assertNotNull(packed);
+    Codebook codebook = packed.getCodebook();
+    PackedTokens expected = new PackedTokens(c, codebook);
+    assertEquals(expected.size(), packed.size());
+    for (int i = 0; i < c.length(); i++) {
+      assertEquals(expected.rank(i), packed.rank(i));
+    }
+    assertEquals(expected.estimatedBytes(), packed.estimatedBytes());
+    assertEquals(c.length(), loaded.length());
+    assertEquals(c.newlineCount(), loaded.newlineCount());
+    assertEquals(c.maxLineLength(), loaded.maxLineLength());
+    assertEquals(c.wordFrequency(), loaded.wordFrequency());
+    assertEquals(c.getOriginalText(), loaded.getOriginalText());
+    assertSame(codebook, new TextAsImage(loaded).getCodebook());
+  }
+}
@@ -0,0 +1,54 @@
+package net.quined.textual_filters;
+
+/**
+ * Test the row kernels against the per-pixel codebook conversions.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.Random;
+
+public class RasterKernelsTest {
+
+  /**
+   * Scalar kernels convert like Codebook does, and the kernels in use,
+   * vector ones if the JVM has the module, agree with the scalar ones.
+   */
+  @Test
+  public void kernelsMatchCodebook() {
+    RasterKernels scalar = new ScalarKernels();
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+        && !"scalar".equals(System.getProperty("textual_filters.kernels"))) {
+      assertEquals("VectorKernels", RasterKernels.get().getClass().getSimpleName());
+    }
+    assertTrue(RasterKernels.Loaded.agree(RasterKernels.get(), scalar));
+    Random random = new Random(9);
+    for (int vocabulary : new int[] {3, 200, 5000}) {
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < 4 * vocabulary; i++) {
+        text.append('w').append(random.nextInt(vocabulary)).append(' ');
+      }
+      Corpus c = new Corpus();
+      c.loadText(text);
+      Codebook codebook = new Codebook(c);
+      RasterKernels.Coding coding = codebook.coding(-1, -1);
+      int[] colors = new int[1000];
+      int[] ranks = new int[1000];
+      for (int i = 0; i < colors.length; i++) {
+        colors[i] = random.nextInt();
+        ranks[i] = random.nextInt(codebook.size());
+      }
+      int[] decoded = colors.clone();
+      int[] encoded = ranks.clone();
+      scalar.colorsToRanks(decoded, decoded.length, coding);
+      scalar.ranksToColors(encoded, encoded.length, coding);
+      for (int i = 0; i < colors.length; i++) {
+        assertEquals((colors[i] == -1) ? -1 : codebook.colorToRank(colors[i]), decoded[i]);
+        assertEquals(codebook.rankToColor(ranks[i]), encoded[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package net.quined.textual_filters;
+
+/**
+ * Test Corpus statistics and image round trips on texts of millions of
+ * words, within time and memory budgets.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+public class ScaleRoundTripTest {
+  private static final int WORDS = 2000000;
+  // loading, encoding and decoding together
+  private static final long TIME_BUDGET_MILLIS = 30000;
+  // memory a loaded corpus may keep, per word of text
+  private static final long BYTES_PER_WORD_BUDGET = 24;
+
+  /**
+   * Word, line and frequency counts match what was generated, and the
+   * corpus stays within its memory budget.
+   */
+  @Test
+  public void corpusStatistics() {
+    ZipfCorpusGenerator generator = new ZipfCorpusGenerator(1, 50000, 1.07, 12);
+    StringBuilder text = generator.generate(WORDS);
+    int lines = generator.lineCount();
+
+    long before = usedHeap();
+    Corpus c = new Corpus();
+    c.loadText(text);
+    long retained = usedHeap() - before;
+
+    // every line but the last ends in a newline word
+    assertEquals(WORDS + lines - 1, c.length());
+    assertEquals(lines, c.newlineCount());
+    int longest = 0;
+    for (int line = 0; line < lines; line++) {
+      assertEquals(generator.lineLength(line), c.lineLength(line));
+      longest = Math.max(longest, generator.lineLength(line) + (line + 1 < lines ? 1 : 0));
+    }
+    assertEquals(longest, c.maxLineLength());
+    assertEquals(generator.distinctWords() + 1, c.uniqueWordCount());
+    for (int rank = 0; rank < 1000; rank++) {
+      Integer count = c.wordFrequency().get(ZipfCorpusGenerator.word(rank));
+      assertEquals(generator.count(rank), (count == null) ? 0 : count.intValue());
+    }
+    assertEquals(lines - 1, c.wordFrequency().get(Corpus.NEWLINE).intValue());
+
+    assertTrue("corpus keeps " + retained + " bytes", retained < BYTES_PER_WORD_BUDGET * c.length());
+    assertNotNull(c.getWord(0));
+  }
+
+  /**
+   * Without newline syncing every word, newlines included, survives the
+   * round trip in order.
+   */
+  @Test
+  public void losslessRoundTrip() {
+    roundTrip(Layout.DEFAULT.withSyncNewlineAndVertical(false), 2, 70000);
+    roundTrip(Layout.DEFAULT.withSyncNewlineAndVertical(false).withIndexedColor(true), 3, 200);
+  }
+
+  /**
+   * With newline syncing every line keeps its words.
+   */
+  @Test
+  public void syncedRoundTrip() {
+    roundTrip(Layout.DEFAULT.withPadding(true), 4, 30000);
+  }
+
+  private static void roundTrip(Layout layout, long seed, int vocabulary) {
+    long start = System.currentTimeMillis();
+    Corpus original = new Corpus();
+    original.loadText(new ZipfCorpusGenerator(seed, vocabulary, 1.0, 10).generate(WORDS));
+    TextAsImage tai = new TextAsImage(new Codebook(original), original, layout);
+    BufferedImage image = tai.createImage();
+    Corpus decoded = tai.openImage(image);
+    long elapsed = System.currentTimeMillis() - start;
+
+    if (layout.isSyncNewlineAndVertical()) {
+      // each row ends in a line break, so trailing rows may add empty lines
+      assertTrue(decoded.newlineCount() >= original.newlineCount());
+      for (int line = 0; line < original.newlineCount(); line++) {
+        assertTrue("line " + line, original.lineEquals(line, decoded, line + tai.rowOfLine(0)));
+      }
+    } else {
+      assertEquals(original.length(), decoded.length());
+      for (int i = 0; i < original.length(); i++) {
+        assertEquals(original.getWord(i), decoded.getWord(i));
+      }
+    }
+    assertTrue(layout + " took " + elapsed + " ms", elapsed < TIME_BUDGET_MILLIS);
+  }
+
+  private static long usedHeap() {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+}
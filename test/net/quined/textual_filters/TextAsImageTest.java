@@ -0,0 +1,129 @@
+package net.quined.textual_filters;
+
+/**
+ * Test sharing one TextAsImage between threads and decoding parts of images.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+public class TextAsImageTest {
+
+  /**
+   * Copies with another layout share the mapping and leave the original
+   * untouched.
+   */
+  @Test
+  public void layoutCopies() {
+    // enough words that a fifth of the image side is at least one pixel
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 400; i++) {
+      text.append("w").append(i % 37).append(i % 25 == 24 ? '\n' : ' ');
+    }
+    Corpus c = new Corpus();
+    c.loadText(text);
+    TextAsImage tai = new TextAsImage(c);
+    TextAsImage padded = tai.withPadding(true).withSyncNewlineAndVertical(false);
+    assertSame(tai.getCodebook(), padded.getCodebook());
+    assertSame(tai, tai.withLayout(Layout.DEFAULT));
+    assertEquals(Layout.DEFAULT, tai.getLayout());
+    assertEquals(c.maxLineLength() + 1, tai.getImageWidth());
+    assertEquals(c.newlineCount() + 1, tai.getImageHeight());
+    assertTrue(padded.getLayout().isPadded());
+    int inner = (int) Math.ceil(Math.sqrt(c.length()));
+    int pad = (int) (inner * 0.2f);
+    assertTrue(pad > 0);
+    assertEquals(inner + 2 * pad, padded.getImageWidth());
+    assertEquals(inner + 2 * pad, padded.getImageHeight());
+  }
+
+  /**
+   * Concurrent encodes and decodes with one mapping give the same text as
+   * a single thread.
+   */
+  @Test
+  public void sharedAcrossThreads() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      text.append("w").append((i * 7919) % 400).append(i % 13 == 12 ? '\n' : ' ');
+    }
+    Corpus c = new Corpus();
+    c.loadText(text);
+    final TextAsImage shared = new TextAsImage(c);
+    final String expected = shared.openImage(shared.createImage()).getOriginalText();
+
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> results = new ArrayList<Future<String>>();
+      for (int i = 0; i < 16; i++) {
+        final boolean indexed = (i % 2 == 0);
+        results.add(pool.submit(new Callable<String>() {
+          public String call() {
+            TextAsImage t = shared.withIndexedColor(indexed);
+            BufferedImage image = t.createImage();
+            return t.openImage(image).getOriginalText();
+          }
+        }));
+      }
+      for (Future<String> result : results) {
+        assertEquals(expected, result.get());
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Regions read from a file hold the same words as regions of the image in
+   * memory, and rows of synced images are whole lines.
+   */
+  @Test
+  public void regionDecode() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      text.append("w").append((i * 7919) % 500).append(i % 17 == 16 ? '\n' : ' ');
+    }
+    Corpus c = new Corpus();
+    c.loadText(text);
+    TextAsImage synced = new TextAsImage(c);
+    for (TextAsImage tai : new TextAsImage[] {synced, synced.withSyncNewlineAndVertical(false),
+                                              synced.withLayout(Layout.DEFAULT.withRagged(true))}) {
+      BufferedImage image = tai.createImage();
+      File file = File.createTempFile("region", "." + tai.imageFormat());
+      try {
+        ImageIO.write(image, tai.imageFormat(), file);
+        Rectangle region = new Rectangle(3, 20, 9, 40);
+        assertEquals(tai.openRegion(image, region).getOriginalText(),
+                     tai.openRegion(file.getPath(), region).getOriginalText());
+        Rectangle whole = new Rectangle(-5, -5, image.getWidth() + 10, image.getHeight() + 10);
+        assertEquals(tai.openImage(image).getOriginalText(),
+                     tai.openRegion(file.getPath(), whole).getOriginalText());
+        assertEquals(0, tai.openRegion(image, new Rectangle(0, image.getHeight(), 5, 5)).length());
+      } finally {
+        file.delete();
+      }
+    }
+
+    // row 10 of the synced image is line 10
+    BufferedImage image = synced.createImage();
+    Corpus line = synced.openRegion(image, new Rectangle(0, 10, image.getWidth(), 1));
+    assertEquals(1, line.newlineCount());
+    for (int i = 0; i < c.lineLength(10); i++) {
+      assertEquals(c.getWord(c.lineStart(10) + i), line.getWord(i));
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package net.quined.textual_filters;
+
+/**
+ * Generates large texts with known statistics for scale tests.
+ *
+ * Word ranks follow a Zipf distribution: the word of rank r occurs with
+ * probability proportional to 1 / (r + 1)^exponent. Line lengths follow a
+ * geometric distribution with a given mean. Words are spelled as letters
+ * only, so tokenizing the text gives back exactly the generated words. The
+ * same seed and parameters always give the same text.
+ *
+ * @author Phillip Mates
+ * @version 0.1
+ */
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+class ZipfCorpusGenerator {
+  private final SplittableRandom random;
+  // cumulative probabilities of the ranks
+  private final double[] cumulative;
+  private final double meanLineLength;
+
+  /**
+   * Statistics of the generated text
+   */
+  private final int[] wordCounts;
+  private int[] lineLengths = new int[1024];
+  private int lineCount;
+
+  /**
+   * @param seed              makes the text reproducible
+   * @param vocabularySize    number of distinct words that may occur
+   * @param exponent          Zipf exponent; around 1 for natural language
+   * @param meanLineLength    average number of words per line, at least 1
+   */
+  ZipfCorpusGenerator(long seed, int vocabularySize, double exponent, double meanLineLength) {
+    this.random = new SplittableRandom(seed);
+    this.meanLineLength = meanLineLength;
+    cumulative = new double[vocabularySize];
+    double total = 0;
+    for (int rank = 0; rank < vocabularySize; rank++) {
+      total += 1.0 / Math.pow(rank + 1, exponent);
+      cumulative[rank] = total;
+    }
+    for (int rank = 0; rank < vocabularySize; rank++) {
+      cumulative[rank] /= total;
+    }
+    wordCounts = new int[vocabularySize];
+  }
+
+  /**
+   * Spell a rank in base 26 letters: a, b, ..., z, ba, bb, ...
+   *
+   * @param rank    word rank, 0 for the most frequent word
+   * @return        the word
+   */
+  static String word(int rank) {
+    StringBuilder word = new StringBuilder();
+    do {
+      word.append((char) ('a' + rank % 26));
+      rank /= 26;
+    } while (rank > 0);
+    return word.reverse().toString();
+  }
+
+  /**
+   * Generate a text. Lines are separated by newlines, with no newline after
+   * the last one, and words by single spaces.
+   *
+   * @param words     number of words to generate
+   * @return          the text
+   */
+  StringBuilder generate(int words) {
+    StringBuilder text = new StringBuilder(words * 6);
+    String[] spelled = new String[cumulative.length];
+    double lineBreakChance = 1.0 / meanLineLength;
+    int onLine = 0;
+    for (int i = 0; i < words; i++) {
+      int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+      rank = Math.min((rank >= 0) ? rank : -rank - 1, cumulative.length - 1);
+      if (spelled[rank] == null) {
+        spelled[rank] = word(rank);
+      }
+      wordCounts[rank]++;
+      if (onLine > 0) {
+        text.append(' ');
+      }
+      text.append(spelled[rank]);
+      onLine++;
+      if (i + 1 < words && random.nextDouble() < lineBreakChance) {
+        text.append('\n');
+        endLine(onLine);
+        onLine = 0;
+      }
+    }
+    endLine(onLine);
+    return text;
+  }
+
+  private void endLine(int length) {
+    if (lineCount == lineLengths.length) {
+      lineLengths = Arrays.copyOf(lineLengths, 2 * lineCount);
+    }
+    lineLengths[lineCount++] = length;
+  }
+
+  /**
+   * How often the word of a rank was generated.
+   */
+  int count(int rank) {
+    return wordCounts[rank];
+  }
+
+  int lineCount() {
+    return lineCount;
+  }
+
+  /**
+   * Number of words on a line, not counting its newline.
+   */
+  int lineLength(int line) {
+    return lineLengths[line];
+  }
+
+  /**
+   * Number of distinct words generated.
+   */
+  int distinctWords() {
+    int distinct = 0;
+    for (int count : wordCounts) {
+      if (count > 0) {
+        distinct++;
+      }
+    }
+    return distinct;
+  }
+}